@@ -12,10 +12,21 @@
  */
 package org.github.flytreeleft.nexus3.keycloak.plugin;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import com.google.common.io.BaseEncoding;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
@@ -26,9 +37,18 @@ import org.apache.shiro.authz.SimpleAuthorizationInfo;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.eclipse.sisu.Description;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakChangeListener;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakHttpHeaderAuthToken;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakPluginConfig;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.NexusKeycloakClient;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.NexusKeycloakClientLoader;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.FailedLoginCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.RefreshAheadCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.SingleFlight;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.Deadline;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.DeadlineExceededException;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.http.HttpResponseException;
+import org.keycloak.representations.idm.UserRepresentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,9 +58,18 @@ import org.slf4j.LoggerFactory;
 public class KeycloakAuthenticatingRealm extends AuthorizingRealm {
     public static final String NAME = KeycloakAuthenticatingRealm.class.getName();
 
+    /** The failed credentials are only kept as the HMAC with a random key of the process */
+    private static final String CREDENTIALS_HASH_ALGORITHM = "HmacSHA256";
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final NexusKeycloakClient client;
+    private final SingleFlight<List<String>, Boolean> authentications = new SingleFlight<>();
+    private final FailedLoginCache failedLogins;
+    private final SecretKey credentialsHashKey = createCredentialsHashKey();
+    private final RefreshAheadCache<String, AuthorizationInfo> authorizations;
+    /** The max seconds of an authentication or authorization, including all the requests to Keycloak */
+    private final long operationDeadline;
 
     public KeycloakAuthenticatingRealm() {
         this(NexusKeycloakClientLoader.loadDefaultClient());
@@ -49,6 +78,36 @@ public class KeycloakAuthenticatingRealm extends AuthorizingRealm {
     public KeycloakAuthenticatingRealm(NexusKeycloakClient client) {
         this.client = client;
         //setCredentialsMatcher((token, info) -> true);
+
+        KeycloakPluginConfig config = getPluginConfig(client);
+        this.failedLogins = new FailedLoginCache(config.getFailedLoginCacheTtl(),
+                                                 config.getFailedLoginCacheMaxSize(),
+                                                 config.getFailedLoginInitialBackoff(),
+                                                 config.getFailedLoginMaxBackoff());
+        this.authorizations = new RefreshAheadCache<>(config.getAuthorizationCacheRefreshAfter(),
+                                                      config.getAuthorizationCacheTtl(),
+                                                      config.getAuthorizationCacheMaxSize(),
+                                                      config.getRefreshAheadMinHits(),
+                                                      this::loadAuthorizationInfo,
+                                                      getBackgroundExecutor(client),
+                                                      null);
+        this.operationDeadline = config.getOperationDeadline();
+
+        // Evict the cached roles when they are changed in Keycloak
+        client.addChangeListener(new KeycloakChangeListener() {
+            @Override
+            public void onUserChanged(UserRepresentation user) {
+                authorizations.invalidate(user.getUsername());
+                if (user.getEmail() != null) {
+                    authorizations.invalidate(user.getEmail());
+                }
+            }
+
+            @Override
+            public void onAllUsersChanged() {
+                authorizations.invalidateAll();
+            }
+        });
     }
 
     @Override
@@ -62,6 +121,12 @@ public class KeycloakAuthenticatingRealm extends AuthorizingRealm {
         this.logger.info("Keycloak Realm {} initialized...", getClass().getName());
     }
 
+    /** Release the client when the plugin is stopped, so the connections and threads of it can be shut down */
+    @PreDestroy
+    public void destroy() {
+        NexusKeycloakClientLoader.releaseClient(this.client);
+    }
+
     @Override
     public boolean supports(AuthenticationToken token) {
         return (token instanceof UsernamePasswordToken) || (token instanceof KeycloakHttpHeaderAuthToken);
@@ -74,17 +139,42 @@ public class KeycloakAuthenticatingRealm extends AuthorizingRealm {
             return null;
         }
 
+        try (Deadline deadline = Deadline.start("authorization of " + username, this.operationDeadline)) {
+            AuthorizationInfo info = this.authorizations.get(username);
+            this.logger.debug("doGetAuthorizationInfo for {} with roles {}", username, info.getRoles());
+
+            return info;
+        }
+    }
+
+    private AuthorizationInfo loadAuthorizationInfo(String username) {
         Set<String> userRoles = this.client.findRoleIdsByUserId(username);
         this.logger.info("doGetAuthorizationInfo for {} with roles {}", username, userRoles);
 
         return new SimpleAuthorizationInfo(userRoles);
     }
 
+    /** Evict the cached roles of the user, so they will be reloaded from Keycloak on the next permission check */
+    public void evictAuthorizationInfo(String username) {
+        this.authorizations.invalidate(username);
+        this.client.invalidateRoleIds(username);
+        this.logger.info("Evicted the cached roles of {} from {}", username, getName());
+    }
+
+    /** Evict the cached roles of all users, and reload the role catalog */
+    public void evictAllAuthorizationInfo() {
+        this.authorizations.invalidateAll();
+        this.client.invalidateAllRoleIds();
+        this.client.refreshRoleCatalog();
+        this.logger.info("Evicted the cached roles of all users from {}", getName());
+    }
+
     @Override
     protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
         boolean authenticated = false;
+        String operation = "authentication of " + token.getPrincipal();
 
-        try {
+        try (Deadline deadline = Deadline.start(operation, this.operationDeadline)) {
             /* convert username to lowercase to prevent creating multiple user session */
             if (token instanceof UsernamePasswordToken) {
                 String username = ((UsernamePasswordToken) token).getUsername();
@@ -92,12 +182,27 @@ public class KeycloakAuthenticatingRealm extends AuthorizingRealm {
                 ((UsernamePasswordToken) token).setUsername(username.toLowerCase());
             }
 
-            authenticated = this.client.authenticate(token);
+            String principal = (String) token.getPrincipal();
+            String credentialsHash = hashCredentials(token);
+
+            if (token instanceof UsernamePasswordToken
+                && isRejected((UsernamePasswordToken) token, principal, credentialsHash)) {
+                this.logger.info("doGetAuthenticationInfo for {} is rejected because of the recent failed logins",
+                                 principal);
+                return null;
+            }
+
+            // Coalesce the concurrent authentications with the same credentials
+            List<String> key = Arrays.asList(getName(), principal, credentialsHash);
+            authenticated = this.authentications.execute(key, () -> authenticate(token, credentialsHash));
 
             this.logger.info("doGetAuthenticationInfo for {} via {}: {}",
                              token.getPrincipal(),
                              token.getClass().getName(),
                              authenticated);
+        } catch (DeadlineExceededException e) {
+            // Keycloak is too slow, the details have been logged
+            this.logger.info("doGetAuthenticationInfo failed for {}: {}", token.getPrincipal(), e.getMessage());
         } catch (RuntimeException e) {
             this.logger.info("doGetAuthenticationInfo failed for {}", token.getPrincipal(), e);
         }
@@ -109,6 +214,76 @@ public class KeycloakAuthenticatingRealm extends AuthorizingRealm {
         }
     }
 
+    /**
+     * Reject the recently failed password directly, and during the backoff of the principal,
+     * only reject the password which doesn't match the cached one,
+     * so the other clients with the correct password aren't locked out by a stale one.
+     */
+    private boolean isRejected(UsernamePasswordToken token, String principal, String credentialsHash) {
+        if (this.failedLogins.isFailedCredentials(principal, credentialsHash)) {
+            return true;
+        }
+        return this.failedLogins.isBackedOff(principal) && !this.client.isCredentialCached(token);
+    }
+
+    private boolean authenticate(AuthenticationToken token, String credentialsHash) {
+        boolean authenticated;
+
+        try {
+            authenticated = this.client.authenticate(token);
+        } catch (HttpResponseException e) {
+            // Keycloak responds 401 for the invalid credentials, and 400 for the disabled account
+            if (e.getStatusCode() != 401 && e.getStatusCode() != 400) {
+                throw e;
+            }
+
+            this.logger.info("Keycloak rejected the credentials of {}: {}", token.getPrincipal(), e.getMessage());
+            authenticated = false;
+        }
+
+        if (token instanceof UsernamePasswordToken) {
+            if (authenticated) {
+                this.failedLogins.recordSuccess((String) token.getPrincipal());
+            } else {
+                this.failedLogins.recordFailure((String) token.getPrincipal(), credentialsHash);
+            }
+        }
+        return authenticated;
+    }
+
+    private static SecretKey createCredentialsHashKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+
+        return new SecretKeySpec(key, CREDENTIALS_HASH_ALGORITHM);
+    }
+
+    private static Executor getBackgroundExecutor(NexusKeycloakClient client) {
+        Executor executor = client.getBackgroundExecutor();
+
+        return executor != null ? executor : Runnable::run;
+    }
+
+    private static KeycloakPluginConfig getPluginConfig(NexusKeycloakClient client) {
+        KeycloakPluginConfig config = client.getPluginConfig();
+
+        return config != null ? config : new KeycloakPluginConfig();
+    }
+
+    private String hashCredentials(AuthenticationToken token) {
+        Object credentials = token.getCredentials();
+        String value = credentials instanceof char[] ? new String((char[]) credentials) : String.valueOf(credentials);
+
+        try {
+            Mac mac = Mac.getInstance(CREDENTIALS_HASH_ALGORITHM);
+            mac.init(this.credentialsHashKey);
+
+            return BaseEncoding.base16().encode(mac.doFinal(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not hash the credentials with " + CREDENTIALS_HASH_ALGORITHM, e);
+        }
+    }
+
     /**
      * Creates the simple auth info.
      *
@@ -3,42 +3,69 @@ package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.TrustAllStrategy;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.shiro.util.StringUtils;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.ExpiringCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.RefreshingSnapshot;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.UserCache;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.http.ClientAuthenticator;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.http.Http;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.http.HttpConnectionPools;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.http.HttpMethod;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.http.HttpMethodResponse;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mapper.KeycloakMapper;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.common.util.KeycloakUriBuilder;
 import org.keycloak.constants.ServiceUrlConstants;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
 import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.JsonWebToken;
 import org.keycloak.representations.UserInfo;
 import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.representations.idm.AdminEventRepresentation;
 import org.keycloak.representations.idm.ClientRepresentation;
 import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.MappingsRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.slf4j.Logger;
@@ -57,12 +84,27 @@ public class KeycloakAdminClient {
 
     private static final Logger logger = LoggerFactory.getLogger(KeycloakAdminClient.class);
 
+    private static final int SCHEDULER_THREADS = 2;
+    private static final int USER_PAGE_SIZE = 100;
+
     private final AdapterConfig config;
+    private final KeycloakPluginConfig pluginConfig;
     private Http http;
+    private PoolingHttpClientConnectionManager connectionPool;
     private KeycloakTokenManager tokenManager;
+    private ExpiringCache<String, UserInfo> userInfoCache;
+    private ExpiringCache<String, ClientRepresentation> realmClientCache;
+    private RefreshingSnapshot<Map<String, GroupRepresentation>> realmGroupIndex;
+    private UserCache userCache;
+    private ScheduledExecutorService scheduler;
 
     public KeycloakAdminClient(AdapterConfig config) {
+        this(config, new KeycloakPluginConfig());
+    }
+
+    public KeycloakAdminClient(AdapterConfig config, KeycloakPluginConfig pluginConfig) {
         this.config = config;
+        this.pluginConfig = pluginConfig;
     }
 
     public KeycloakAdminClient(InputStream config) {
@@ -72,7 +114,13 @@ public class KeycloakAdminClient {
                                                   .withFieldVisibility(JsonAutoDetect.Visibility.ANY));
 
         try {
-            this.config = mapper.readValue(config, AdapterConfig.class);
+            JsonNode root = mapper.readTree(config);
+            JsonNode plugin = root.path(KeycloakPluginConfig.SECTION_NAME);
+
+            this.config = mapper.treeToValue(root, AdapterConfig.class);
+            this.pluginConfig = plugin.isObject()
+                                ? mapper.treeToValue(plugin, KeycloakPluginConfig.class)
+                                : new KeycloakPluginConfig();
         } catch (IOException e) {
             throw new RuntimeException("Could not parse configuration.", e);
         }
@@ -109,14 +157,116 @@ public class KeycloakAdminClient {
     }
 
     public UserInfo obtainUserInfo(String accessToken) {
+        ExpiringCache<String, UserInfo> cache = getUserInfoCache();
+        // Note: Do not keep the raw token in memory
+        String key = cache.isEnabled()
+                     ? Hashing.sha256().hashString(accessToken, StandardCharsets.UTF_8).toString()
+                     : null;
+
+        UserInfo userInfo = key != null ? cache.get(key) : null;
+        if (userInfo != null) {
+            return userInfo;
+        }
+
         HttpMethod<UserInfo> httpMethod = getHttp().get("/realms/%s/protocol/openid-connect/userinfo", getRealm());
 
         httpMethod.authorizationBearer(accessToken);
 
-        return httpMethod.response().json(UserInfo.class).execute();
+        userInfo = httpMethod.response().json(UserInfo.class).execute();
+        if (userInfo != null && key != null) {
+            cache.put(key, userInfo, getTokenExpirationTime(accessToken));
+
+            logger.debug("Cached the UserInfo of {}, the cache stats: {}", userInfo.getPreferredUsername(), cache);
+        }
+        return userInfo;
+    }
+
+    public synchronized ExpiringCache<String, UserInfo> getUserInfoCache() {
+        if (this.userInfoCache == null) {
+            this.userInfoCache = new ExpiringCache<>(getPluginConfig().getUserInfoCacheTtl(),
+                                                     getPluginConfig().getUserInfoCacheMaxSize());
+        }
+        return this.userInfoCache;
+    }
+
+    /** Get the expiration time (in milliseconds) of the JWT token, or {@link Long#MAX_VALUE} if it's unknown */
+    private long getTokenExpirationTime(String token) {
+        try {
+            Long exp = new JWSInput(token).readJsonContent(JsonWebToken.class).getExp();
+
+            return exp != null && exp > 0 ? TimeUnit.SECONDS.toMillis(exp) : Long.MAX_VALUE;
+        } catch (JWSInputException e) {
+            return Long.MAX_VALUE;
+        }
     }
 
+    public JSONWebKeySet obtainJsonWebKeySet() {
+        HttpMethod<JSONWebKeySet> httpMethod = getHttp().get("/realms/%s/protocol/openid-connect/certs", getRealm());
+
+        return httpMethod.response().json(JSONWebKeySet.class).execute();
+    }
+
+    /** Get the client of the realm, the resolved client will be cached, because its id almost never changes */
     public ClientRepresentation getRealmClient(String clientId) {
+        ExpiringCache<String, ClientRepresentation> cache = getRealmClientCache();
+
+        ClientRepresentation client = cache.get(clientId);
+        if (client == null) {
+            client = findRealmClient(clientId);
+            cache.put(clientId, client);
+        }
+        return client;
+    }
+
+    public synchronized ExpiringCache<String, ClientRepresentation> getRealmClientCache() {
+        if (this.realmClientCache == null) {
+            this.realmClientCache = new ExpiringCache<>(getPluginConfig().getClientCacheTtl(),
+                                                        getPluginConfig().getClientCacheMaxSize());
+        }
+        return this.realmClientCache;
+    }
+
+    /**
+     * Call with the (cached) client of the realm. If nothing is responded (404) and the cached client is gone,
+     * the client may have been recreated with a new id, so resolve it again and retry the call.
+     * <p/>
+     * Nothing is also responded when the requested role or user doesn't exist,
+     * the call won't be retried in that case.
+     */
+    <T> T withRealmClient(String clientId, Function<ClientRepresentation, T> call) {
+        ClientRepresentation client = getRealmClient(clientId);
+        if (client == null) {
+            logger.warn("The client {} is not found in the realm {}", clientId, getRealm());
+            return null;
+        }
+
+        T result = call.apply(client);
+        if (result != null || existsRealmClient(client)) {
+            return result;
+        }
+
+        getRealmClientCache().invalidate(clientId);
+
+        ClientRepresentation latestClient = getRealmClient(clientId);
+        if (latestClient == null) {
+            logger.warn("The client {} is removed from the realm {}", clientId, getRealm());
+            return null;
+        }
+
+        logger.info("The id of the client {} is changed from {} to {}", clientId, client.getId(), latestClient.getId());
+        return call.apply(latestClient);
+    }
+
+    /** Check if the client with the resolved id still exists */
+    boolean existsRealmClient(ClientRepresentation client) {
+        HttpMethod<ClientRepresentation> httpMethod = getHttp().get("/admin/realms/%s/clients/%s",
+                                                                    getRealm(),
+                                                                    client.getId());
+
+        return httpMethod.authentication().response().json(ClientRepresentation.class).execute() != null;
+    }
+
+    ClientRepresentation findRealmClient(String clientId) {
         HttpMethod<List<ClientRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/clients", getRealm());
 
         List<ClientRepresentation> clients = httpMethod.param("clientId", clientId)
@@ -128,24 +278,55 @@ public class KeycloakAdminClient {
         return clients != null && !clients.isEmpty() ? clients.get(0) : null;
     }
 
+    /** Get all clients of the realm, they are also cached, so the calls with their client ids won't query them */
+    public List<ClientRepresentation> getRealmClients() {
+        HttpMethod<List<ClientRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/clients", getRealm());
+
+        List<ClientRepresentation> clients = httpMethod.authentication()
+                                                       .response()
+                                                       .json(new TypeReference<List<ClientRepresentation>>() {})
+                                                       .execute();
+        if (clients != null) {
+            clients.forEach((client) -> getRealmClientCache().put(client.getClientId(), client));
+        }
+        return clients;
+    }
+
     public UserRepresentation getUser(String userNameOrEmail) {
         if (!StringUtils.hasText(userNameOrEmail)) {
             return null;
         }
 
+        UserCache cache = getUserCache();
+        return isEmail(userNameOrEmail) ? cache.getByEmail(userNameOrEmail) : cache.getByUsername(userNameOrEmail);
+    }
+
+    public synchronized UserCache getUserCache() {
+        if (this.userCache == null) {
+            this.userCache = new UserCache(getPluginConfig().getUserCacheTtl(),
+                                           getPluginConfig().getUserCacheRefreshAfter(),
+                                           getPluginConfig().getUserCacheMaxSize(),
+                                           getPluginConfig().getRefreshAheadMinHits(),
+                                           this::findUser,
+                                           getScheduler());
+        }
+        return this.userCache;
+    }
+
+    private UserRepresentation findUser(String userNameOrEmail) {
         boolean isEmail = isEmail(userNameOrEmail);
         List<UserRepresentation> users = null;
 
         if (KeycloakMapper.isServiceAccount(userNameOrEmail)) {
             String clientId = KeycloakMapper.getClientIdFromServiceAccount(userNameOrEmail);
-            ClientRepresentation client = getRealmClient(clientId);
-
-            HttpMethod<UserRepresentation> httpMethod
-                    = getHttp().get("/admin/realms/%s/clients/%s/service-account-user", getRealm(), client.getId());
-
             logger.info("Try to get UserRepresentation for the service account {}", userNameOrEmail);
 
-            UserRepresentation user = httpMethod.authentication().response().json(UserRepresentation.class).execute();
+            UserRepresentation user = withRealmClient(clientId, (client) -> {
+                HttpMethod<UserRepresentation> httpMethod
+                        = getHttp().get("/admin/realms/%s/clients/%s/service-account-user", getRealm(), client.getId());
+
+                return httpMethod.authentication().response().json(UserRepresentation.class).execute();
+            });
             if (user != null) {
                 users = Collections.singletonList(user);
             }
@@ -178,10 +359,121 @@ public class KeycloakAdminClient {
         return null;
     }
 
+    public UserRepresentation getUserById(String userId) {
+        HttpMethod<UserRepresentation> httpMethod = getHttp().get("/admin/realms/%s/users/%s", getRealm(), userId);
+
+        return httpMethod.authentication().response().json(UserRepresentation.class).execute();
+    }
+
+    /** Get all users, use {@link #iterateUsers()} instead if the realm has many users */
     public List<UserRepresentation> getUsers() {
-        HttpMethod<List<UserRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/users", getRealm());
+        return Lists.newArrayList(iterateUsers());
+    }
+
+    /**
+     * Iterate all users page by page, only one page of users is kept in memory,
+     * and the next page is requested when the current page is consumed.
+     */
+    public Iterator<UserRepresentation> iterateUsers() {
+        return new AbstractIterator<UserRepresentation>() {
+            private final Deque<UserRepresentation> page = new ArrayDeque<>(USER_PAGE_SIZE);
+            private int first = 0;
+            private boolean last = false;
+
+            @Override
+            protected UserRepresentation computeNext() {
+                if (this.page.isEmpty() && !this.last) {
+                    int size = getUsers(this.first, USER_PAGE_SIZE, this.page::add);
+
+                    this.first += size;
+                    this.last = size < USER_PAGE_SIZE;
+                }
+                return !this.page.isEmpty() ? this.page.poll() : endOfData();
+            }
+        };
+    }
+
+    /** Walk the usernames of all users page by page, only the usernames are picked from the responses */
+    public void forEachUsername(Consumer<String> consumer) {
+        int count = USER_PAGE_SIZE;
+
+        for (int first = 0; count >= USER_PAGE_SIZE; first += count) {
+            HttpMethod<Integer> httpMethod = getHttp().get("/admin/realms/%s/users", getRealm());
+
+            Integer size = httpMethod.param("first", String.valueOf(first))
+                                     .param("max", String.valueOf(USER_PAGE_SIZE))
+                                     .param("briefRepresentation", "true")
+                                     .authentication()
+                                     .execute(HttpMethodResponse.jsonArrayField("username", consumer));
+            count = size != null ? size : 0;
+        }
+    }
+
+    /** Get the users page by page */
+    public List<UserRepresentation> getUsers(int first, int max) {
+        List<UserRepresentation> users = new ArrayList<>();
+
+        getUsers(first, max, users::add);
+        return users;
+    }
+
+    /** Get a page of users and handle them one by one while parsing, return the number of the users */
+    public int getUsers(int first, int max, Consumer<UserRepresentation> consumer) {
+        HttpMethod<Integer> httpMethod = getHttp().get("/admin/realms/%s/users", getRealm());
+
+        Integer count = httpMethod.param("first", String.valueOf(first))
+                                  .param("max", String.valueOf(max))
+                                  .param("briefRepresentation", "true")
+                                  .authentication()
+                                  .execute(HttpMethodResponse.jsonArray(UserRepresentation.class, consumer));
+        return count != null ? count : 0;
+    }
+
+    /** Get the users which are mapped to the realm role directly */
+    public List<UserRepresentation> getUsersOfRealmRole(String roleName, int first, int max) {
+        HttpMethod<List<UserRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/roles/%s/users",
+                                                                        getRealm(),
+                                                                        roleName);
 
-        return httpMethod.authentication().response().json(new TypeReference<List<UserRepresentation>>() {}).execute();
+        return httpMethod.param("first", String.valueOf(first))
+                         .param("max", String.valueOf(max))
+                         .authentication()
+                         .response()
+                         .json(new TypeReference<List<UserRepresentation>>() {})
+                         .execute();
+    }
+
+    /** Get the users which are mapped to the client role directly */
+    public List<UserRepresentation> getUsersOfClientRole(String clientId, String roleName, int first, int max) {
+        return withRealmClient(clientId, (client) -> {
+            HttpMethod<List<UserRepresentation>> httpMethod = getHttp().get(
+                    "/admin/realms/%s/clients/%s/roles/%s/users",
+                    getRealm(),
+                    client.getId(),
+                    roleName);
+
+            return httpMethod.param("first", String.valueOf(first))
+                             .param("max", String.valueOf(max))
+                             .authentication()
+                             .response()
+                             .json(new TypeReference<List<UserRepresentation>>() {})
+                             .execute();
+        });
+    }
+
+    /** Get the direct members of the group */
+    public List<UserRepresentation> getMembersOfGroup(GroupRepresentation group, int first, int max) {
+        HttpMethod<List<UserRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/groups/%s/members",
+                                                                        getRealm(),
+                                                                        group.getId());
+
+        return httpMethod.param("first", String.valueOf(first))
+                         .param("max", String.valueOf(max))
+                         .param("briefRepresentation", "true")
+                         .authentication()
+                         .response()
+                         .json(new TypeReference<List<UserRepresentation>>() {})
+                         .execute();
     }
 
     public List<UserRepresentation> findUsers(String searchText) {
@@ -196,13 +488,14 @@ public class KeycloakAdminClient {
     }
 
     public RoleRepresentation getRealmClientRoleByRoleName(String clientId, String roleName) {
-        ClientRepresentation client = getRealmClient(clientId);
-        HttpMethod<RoleRepresentation> httpMethod = getHttp().get("/admin/realms/%s/clients/%s/roles/%s",
-                                                                  getRealm(),
-                                                                  client.getId(),
-                                                                  roleName);
-
-        return httpMethod.authentication().response().json(RoleRepresentation.class).execute();
+        return withRealmClient(clientId, (client) -> {
+            HttpMethod<RoleRepresentation> httpMethod = getHttp().get("/admin/realms/%s/clients/%s/roles/%s",
+                                                                      getRealm(),
+                                                                      client.getId(),
+                                                                      roleName);
+
+            return httpMethod.authentication().response().json(RoleRepresentation.class).execute();
+        });
     }
 
     public RoleRepresentation getRealmRoleByRoleName(String roleName) {
@@ -217,6 +510,11 @@ public class KeycloakAdminClient {
             return null;
         }
 
+        RefreshingSnapshot<Map<String, GroupRepresentation>> index = getRealmGroupIndex();
+        if (index != null) {
+            return index.get().get(trimmedGroupPath);
+        }
+
         List<GroupRepresentation> groups = getRealmGroups();
         for (GroupRepresentation group : groups) {
             if (group.getPath().equals(trimmedGroupPath)) {
@@ -226,13 +524,35 @@ public class KeycloakAdminClient {
         return null;
     }
 
-    public List<RoleRepresentation> getRealmClientRoles(String clientId) {
-        ClientRepresentation client = getRealmClient(clientId);
-        HttpMethod<List<RoleRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/clients/%s/roles",
-                                                                        getRealm(),
-                                                                        client.getId());
+    /**
+     * The index of all groups of the realm by the group path,
+     * which is refreshed in the background, it's <code>null</code> if the index is disabled.
+     */
+    public synchronized RefreshingSnapshot<Map<String, GroupRepresentation>> getRealmGroupIndex() {
+        long interval = getPluginConfig().getGroupIndexRefreshInterval();
 
-        return httpMethod.authentication().response().json(new TypeReference<List<RoleRepresentation>>() {}).execute();
+        if (this.realmGroupIndex == null && interval > 0) {
+            this.realmGroupIndex = new RefreshingSnapshot<>("groups of " + getRealm(), () -> {
+                Map<String, GroupRepresentation> groups = new HashMap<>();
+
+                getRealmGroups().forEach((group) -> groups.put(group.getPath(), group));
+                return Collections.unmodifiableMap(groups);
+            }, interval, getScheduler());
+        }
+        return this.realmGroupIndex;
+    }
+
+    public List<RoleRepresentation> getRealmClientRoles(String clientId) {
+        return withRealmClient(clientId, (client) -> {
+            HttpMethod<List<RoleRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/clients/%s/roles",
+                                                                            getRealm(),
+                                                                            client.getId());
+
+            return httpMethod.authentication()
+                             .response()
+                             .json(new TypeReference<List<RoleRepresentation>>() {})
+                             .execute();
+        });
     }
 
     public List<RoleRepresentation> getRealmRoles() {
@@ -263,14 +583,18 @@ public class KeycloakAdminClient {
 
         // GET /{realm}/users/{id}/role-mappings/clients/{client}/composite
         // Get effective client-level roles including composite roles and normal roles.
-        ClientRepresentation client = getRealmClient(clientId);
-        HttpMethod<List<RoleRepresentation>> httpMethod = getHttp().get(
-                "/admin/realms/%s/users/%s/role-mappings/clients/%s/composite/",
-                getRealm(),
-                user.getId(),
-                client.getId());
-
-        return httpMethod.authentication().response().json(new TypeReference<List<RoleRepresentation>>() {}).execute();
+        return withRealmClient(clientId, (client) -> {
+            HttpMethod<List<RoleRepresentation>> httpMethod = getHttp().get(
+                    "/admin/realms/%s/users/%s/role-mappings/clients/%s/composite/",
+                    getRealm(),
+                    user.getId(),
+                    client.getId());
+
+            return httpMethod.authentication()
+                             .response()
+                             .json(new TypeReference<List<RoleRepresentation>>() {})
+                             .execute();
+        });
     }
 
     public List<RoleRepresentation> getRealmRolesOfUser(String username) {
@@ -305,6 +629,63 @@ public class KeycloakAdminClient {
         return httpMethod.authentication().response().json(new TypeReference<List<GroupRepresentation>>() {}).execute();
     }
 
+    /** Get the roles which are mapped to the user directly, the composite roles aren't expanded */
+    public MappingsRepresentation getRoleMappingsOfUser(UserRepresentation user) {
+        if (user == null) {
+            return null;
+        }
+
+        HttpMethod<MappingsRepresentation> httpMethod = getHttp().get("/admin/realms/%s/users/%s/role-mappings",
+                                                                      getRealm(),
+                                                                      user.getId());
+
+        return httpMethod.authentication().response().json(MappingsRepresentation.class).execute();
+    }
+
+    /** Get the roles which are mapped to the group directly, the roles of its parent groups are excluded */
+    public MappingsRepresentation getRoleMappingsOfGroup(GroupRepresentation group) {
+        if (group == null) {
+            return null;
+        }
+
+        HttpMethod<MappingsRepresentation> httpMethod = getHttp().get("/admin/realms/%s/groups/%s/role-mappings",
+                                                                      getRealm(),
+                                                                      group.getId());
+
+        return httpMethod.authentication().response().json(MappingsRepresentation.class).execute();
+    }
+
+    /** Get the direct child roles of the composite role */
+    public List<RoleRepresentation> getRoleComposites(String roleId) {
+        HttpMethod<List<RoleRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/roles-by-id/%s/composites",
+                                                                        getRealm(),
+                                                                        roleId);
+
+        return httpMethod.authentication().response().json(new TypeReference<List<RoleRepresentation>>() {}).execute();
+    }
+
+    /**
+     * Get the admin events (the latest first) of the realm,
+     * the option "Save Events" of "Admin Events Settings" should be enabled in Keycloak.
+     *
+     * @param dateFrom
+     *         the date (yyyy-MM-dd) from which the events are got
+     */
+    public List<AdminEventRepresentation> getAdminEvents(String dateFrom, int first, int max) {
+        HttpMethod<List<AdminEventRepresentation>> httpMethod = getHttp().get("/admin/realms/%s/admin-events",
+                                                                              getRealm());
+        if (dateFrom != null) {
+            httpMethod = httpMethod.param("dateFrom", dateFrom);
+        }
+
+        return httpMethod.param("first", String.valueOf(first))
+                         .param("max", String.valueOf(max))
+                         .authentication()
+                         .response()
+                         .json(new TypeReference<List<AdminEventRepresentation>>() {})
+                         .execute();
+    }
+
     public List<RoleRepresentation> combineRoles(Collection<RoleRepresentation>... collections) {
         List<RoleRepresentation> roles = new ArrayList<>();
 
@@ -342,9 +723,25 @@ public class KeycloakAdminClient {
         return this.config;
     }
 
+    public KeycloakPluginConfig getPluginConfig() {
+        return this.pluginConfig;
+    }
+
+    /** The scheduler to run the background tasks, e.g. refreshing the snapshots */
+    public synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("keycloak-scheduler-%d")
+                                                                    .setDaemon(true)
+                                                                    .build();
+            this.scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, threadFactory);
+        }
+        return this.scheduler;
+    }
+
     public synchronized Http getHttp() {
         if (this.http == null) {
-            HttpClient httpClient = createHttpClient(getConfig());
+            RequestConfig requestConfig = createRequestConfig(getConfig());
+            HttpClient httpClient = createHttpClient(getConfig(), requestConfig);
 
             ClientAuthenticator clientAuthenticator = (HttpMethod httpMethod) -> {
                 String token = getTokenManager().getAccessTokenString();
@@ -353,29 +750,50 @@ public class KeycloakAdminClient {
                 httpMethod.authorizationBearer(token);
             };
 
-            this.http = new Http(getConfig(), httpClient, clientAuthenticator);
+            this.http = new Http(getConfig(), httpClient, requestConfig, clientAuthenticator);
         }
 
         return this.http;
     }
 
-    private HttpClient createHttpClient(AdapterConfig config) {
-        HttpClientBuilder builder = HttpClients.custom();
-
-        if (config.isDisableTrustManager()) {
-            try {
-                builder.setSSLContext(new SSLContextBuilder().loadTrustMaterial(null, TrustAllStrategy.INSTANCE)
-                                                             .build());
-            } catch (Exception e) {
-                throw new IllegalStateException(e);
-            }
+    /** Stop the background tasks and release the shared connection pool */
+    public synchronized void close() {
+        if (this.realmGroupIndex != null) {
+            this.realmGroupIndex.stop();
+            this.realmGroupIndex = null;
         }
-        if (config.isAllowAnyHostname()) {
-            builder.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
         }
+        if (this.connectionPool != null) {
+            HttpConnectionPools.release(this.connectionPool);
+            this.connectionPool = null;
+        }
+        this.http = null;
+        this.tokenManager = null;
+    }
+
+    private HttpClient createHttpClient(AdapterConfig config, RequestConfig requestConfig) {
+        // The SSL options are applied to the shared connection pool of the auth server
+        PoolingHttpClientConnectionManager pool = HttpConnectionPools.acquire(config, getPluginConfig());
+        this.connectionPool = pool;
+        long keepAlive = TimeUnit.SECONDS.toMillis(getPluginConfig().getHttpKeepAlive());
+
+        HttpClientBuilder builder = HttpClients.custom()
+                                               .setConnectionManager(pool)
+                                               .setConnectionManagerShared(true)
+                                               .setDefaultRequestConfig(requestConfig)
+                                               .setKeepAliveStrategy((response, context) -> {
+                                                   // Respect the shorter keep-alive of the server
+                                                   long duration = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                                           .getKeepAliveDuration(response, context);
+
+                                                   return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+                                               });
 
         // Proxy url: http(s)://username:password@example.com/
-        String proxyUrl = config.getProxyUrl() != null ? config.getProxyUrl().trim() : null;
+        String proxyUrl = getProxyUrl(config);
         if (StringUtils.hasText(proxyUrl)) {
             String url = proxyUrl.replaceAll("://([^/]*@)?", "://");
             String auth = proxyUrl.replaceAll(".+://(([^/]*)@)?.+", "$2");
@@ -392,14 +810,43 @@ public class KeycloakAdminClient {
 
                 builder.setDefaultCredentialsProvider(credentialsProvider);
             }
+        }
 
-            RequestConfig requestConfig = RequestConfig.custom().setProxy(proxy).build();
-            builder.setDefaultRequestConfig(requestConfig);
+        return builder.build();
+    }
+
+    /**
+     * The proxy and the timeouts of the requests.
+     * The timeouts will be limited by the remaining time of the current operation if there is a deadline.
+     */
+    private RequestConfig createRequestConfig(AdapterConfig config) {
+        KeycloakPluginConfig pluginConfig = getPluginConfig();
+        int connectTimeout = toTimeout(pluginConfig.getHttpConnectTimeout());
+        int socketTimeout = toTimeout(pluginConfig.getHttpSocketTimeout());
+        int connectionRequestTimeout = toTimeout(pluginConfig.getHttpConnectionRequestTimeout());
+
+        RequestConfig.Builder builder = RequestConfig.custom()
+                                                     .setConnectTimeout(connectTimeout)
+                                                     .setSocketTimeout(socketTimeout)
+                                                     .setConnectionRequestTimeout(connectionRequestTimeout);
+
+        String proxyUrl = getProxyUrl(config);
+        if (StringUtils.hasText(proxyUrl)) {
+            builder.setProxy(HttpHost.create(proxyUrl.replaceAll("://([^/]*@)?", "://")));
         }
 
         return builder.build();
     }
 
+    private static String getProxyUrl(AdapterConfig config) {
+        return config.getProxyUrl() != null ? config.getProxyUrl().trim() : null;
+    }
+
+    private static int toTimeout(long seconds) {
+        // The negative value means the system default
+        return seconds > 0 ? (int) Math.min(TimeUnit.SECONDS.toMillis(seconds), Integer.MAX_VALUE) : -1;
+    }
+
     private KeycloakTokenManager getTokenManager() {
         if (this.tokenManager == null) {
             this.tokenManager = new KeycloakTokenManager(getConfig(), this.http);
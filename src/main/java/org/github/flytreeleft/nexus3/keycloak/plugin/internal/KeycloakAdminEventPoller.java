@@ -0,0 +1,228 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.common.hash.Hashing;
+import org.keycloak.representations.idm.AdminEventRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Poll the new admin events of the realm periodically, and pass them to the handler from the oldest one.
+ * <p/>
+ * The time of the last handled event is persisted in the cursor file,
+ * so the events which happened while Nexus3 is stopped can still be handled after it's started.
+ * Keycloak records the time in milliseconds, so many events (e.g. of a bulk operation) may have the same time,
+ * the keys of the handled events at the cursor time are also persisted, and only the other events
+ * at that time will be handled in the next polling.
+ * The cursor doesn't go past the event which fails to be handled, so it will be handled again in the next polling.
+ * <p/>
+ * If there is no cursor file, the cursor starts from the latest event of the realm,
+ * so only the events which happen after starting will be handled, even if the clocks of Nexus3 and Keycloak differ.
+ */
+public class KeycloakAdminEventPoller {
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakAdminEventPoller.class);
+
+    private static final int PAGE_SIZE = 100;
+
+    private final KeycloakAdminClient client;
+    private final File cursorFile;
+    private final long interval; // seconds
+    private final Consumer<AdminEventRepresentation> handler;
+
+    /** It's negative before the cursor is started from the latest event */
+    private long cursor = -1;
+    /** The keys of the handled events whose time is the same as the cursor */
+    private Set<String> cursorEvents = new HashSet<>();
+    private ScheduledFuture<?> polling;
+
+    public KeycloakAdminEventPoller(
+            KeycloakAdminClient client, File cursorFile, long interval, Consumer<AdminEventRepresentation> handler
+    ) {
+        this.client = client;
+        this.cursorFile = cursorFile;
+        this.interval = interval;
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        if (this.polling != null) {
+            return;
+        }
+
+        readCursor();
+        this.polling = this.client.getScheduler().scheduleWithFixedDelay(this::poll,
+                                                                        this.interval,
+                                                                        this.interval,
+                                                                        TimeUnit.SECONDS);
+        logger.info("Start polling the admin events of {} every {} seconds", this.client.getRealm(), this.interval);
+    }
+
+    public synchronized void stop() {
+        if (this.polling != null) {
+            this.polling.cancel(false);
+            this.polling = null;
+        }
+    }
+
+    public synchronized void poll() {
+        if (this.cursor < 0 && !seedCursor()) {
+            return;
+        }
+
+        List<AdminEventRepresentation> events;
+        try {
+            events = fetchNewEvents();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to get the admin events of {}: {}", this.client.getRealm(), e.getMessage());
+            return;
+        }
+
+        List<AdminEventRepresentation> handled = new ArrayList<>();
+        for (AdminEventRepresentation event : events) {
+            try {
+                this.handler.accept(event);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to handle the admin event {} {}, it will be retried in the next polling: {}",
+                            event.getOperationType(),
+                            event.getResourcePath(),
+                            e.getMessage());
+                break;
+            }
+            handled.add(event);
+        }
+
+        if (!handled.isEmpty()) {
+            long time = handled.get(handled.size() - 1).getTime();
+            if (time != this.cursor) {
+                this.cursor = time;
+                this.cursorEvents = new HashSet<>();
+            }
+            handled.stream().filter((event) -> event.getTime() == time).map(this::key).forEach(this.cursorEvents::add);
+            writeCursor();
+
+            logger.debug("Handled {} admin events of {}", handled.size(), this.client.getRealm());
+        }
+    }
+
+    /** Start the cursor from the latest event of the realm, whose time is given by Keycloak */
+    private boolean seedCursor() {
+        List<AdminEventRepresentation> events;
+        try {
+            // The events are sorted from the latest one
+            events = this.client.getAdminEvents(null, 0, PAGE_SIZE);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to get the latest admin event of {}: {}", this.client.getRealm(), e.getMessage());
+            return false;
+        }
+
+        this.cursor = events != null && !events.isEmpty() ? events.get(0).getTime() : 0;
+        this.cursorEvents = new HashSet<>();
+        if (events != null) {
+            events.stream()
+                  .filter((event) -> event.getTime() == this.cursor)
+                  .map(this::key)
+                  .forEach(this.cursorEvents::add);
+        }
+        writeCursor();
+
+        return true;
+    }
+
+    /** Get the events which happened after the cursor, and sort them from the oldest one */
+    private List<AdminEventRepresentation> fetchNewEvents() {
+        // Go back one day to avoid missing the events because of the time zone of Keycloak
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String dateFrom = format.format(new Date(this.cursor - TimeUnit.DAYS.toMillis(1)));
+
+        List<AdminEventRepresentation> events = new ArrayList<>();
+        boolean reached = false;
+
+        for (int first = 0; !reached; first += PAGE_SIZE) {
+            List<AdminEventRepresentation> page = this.client.getAdminEvents(dateFrom, first, PAGE_SIZE);
+            if (page == null) {
+                break;
+            }
+
+            for (AdminEventRepresentation event : page) {
+                // The events are sorted from the latest one
+                if (event.getTime() < this.cursor) {
+                    reached = true;
+                    break;
+                } else if (event.getTime() > this.cursor || !this.cursorEvents.contains(key(event))) {
+                    events.add(event);
+                }
+            }
+
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        Collections.reverse(events);
+        return events;
+    }
+
+    /** The event has no id, so it's identified by its time, operation, resource and representation */
+    private String key(AdminEventRepresentation event) {
+        String value = String.join("|",
+                                   String.valueOf(event.getTime()),
+                                   String.valueOf(event.getOperationType()),
+                                   String.valueOf(event.getResourceType()),
+                                   String.valueOf(event.getResourcePath()),
+                                   String.valueOf(event.getRepresentation()));
+
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * The cursor file has the time of the cursor in the first line,
+     * and the keys of the handled events at that time in the following lines
+     */
+    private void readCursor() {
+        if (this.cursorFile.exists()) {
+            try {
+                List<String> lines = Files.readAllLines(this.cursorFile.toPath(), StandardCharsets.UTF_8);
+
+                this.cursor = Long.parseLong(lines.get(0).trim());
+                this.cursorEvents = new HashSet<>(lines.subList(1, lines.size()));
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("The cursor file {} can not be read: {}", this.cursorFile, e.getMessage());
+            }
+        }
+
+        this.cursor = -1;
+        seedCursor();
+    }
+
+    private void writeCursor() {
+        File tmp = new File(this.cursorFile.getPath() + ".tmp");
+        List<String> lines = new ArrayList<>();
+
+        lines.add(String.valueOf(this.cursor));
+        lines.addAll(this.cursorEvents);
+        try {
+            Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), this.cursorFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("The cursor file {} can not be written: {}", this.cursorFile, e.getMessage());
+        }
+    }
+}
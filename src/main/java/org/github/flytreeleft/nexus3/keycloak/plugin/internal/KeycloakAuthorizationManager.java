@@ -14,6 +14,7 @@ package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
 
 import java.util.Collections;
 import java.util.Set;
+import javax.annotation.PreDestroy;
 import javax.enterprise.inject.Typed;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -44,6 +45,12 @@ public class KeycloakAuthorizationManager extends AbstractReadOnlyAuthorizationM
         this.client = client;
     }
 
+    /** Release the shared client when the plugin is stopped */
+    @PreDestroy
+    public void destroy() {
+        NexusKeycloakClientLoader.releaseClient(this.client);
+    }
+
     @Override
     public String getSource() {
         return this.client.getSource();
@@ -0,0 +1,13 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import org.keycloak.representations.idm.UserRepresentation;
+
+/** Listen the changes in Keycloak, e.g. to evict the caches */
+public interface KeycloakChangeListener {
+
+    /** The user, its role-mappings or groups are changed */
+    void onUserChanged(UserRepresentation user);
+
+    /** The roles of any users may be changed, e.g. the composite role or the role-mappings of a group are changed */
+    void onAllUsersChanged();
+}
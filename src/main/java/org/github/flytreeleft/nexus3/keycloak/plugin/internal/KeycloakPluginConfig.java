@@ -0,0 +1,471 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The plugin specific configuration,
+ * which is put in the section <code>nexus3-plugin</code> of <code>keycloak.json</code>:
+ * <pre>
+ * {
+ *   "realm": "default",
+ *   ...
+ *   "nexus3-plugin": {
+ *     "credential-cache-ttl": 300
+ *   }
+ * }
+ * </pre>
+ * All the time values are in seconds.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class KeycloakPluginConfig {
+    public static final String SECTION_NAME = "nexus3-plugin";
+
+    /** Verify the token of the HTTP header via the remote userinfo endpoint */
+    public static final String TOKEN_VERIFICATION_REMOTE = "remote";
+    /** Verify the token of the HTTP header locally with the cached realm public keys */
+    public static final String TOKEN_VERIFICATION_LOCAL = "local";
+    /** Accept the local verified token which is issued for any client */
+    public static final String TOKEN_ISSUED_FOR_ANY = "*";
+
+    /** Get the effective roles of the user via the composite role-mappings of Keycloak */
+    public static final String ROLE_RESOLUTION_REMOTE = "remote";
+    /** Expand the composite roles of the user locally with the cached role graph */
+    public static final String ROLE_RESOLUTION_LOCAL = "local";
+
+    @JsonProperty("credential-cache-ttl")
+    protected long credentialCacheTtl = 300;
+    @JsonProperty("credential-cache-max-size")
+    protected long credentialCacheMaxSize = 10000;
+
+    @JsonProperty("failed-login-cache-ttl")
+    protected long failedLoginCacheTtl = 300;
+    @JsonProperty("failed-login-cache-max-size")
+    protected long failedLoginCacheMaxSize = 10000;
+    @JsonProperty("failed-login-initial-backoff")
+    protected long failedLoginInitialBackoff = 1;
+    @JsonProperty("failed-login-max-backoff")
+    protected long failedLoginMaxBackoff = 60;
+
+    @JsonProperty("userinfo-cache-ttl")
+    protected long userInfoCacheTtl = 60;
+    @JsonProperty("userinfo-cache-max-size")
+    protected long userInfoCacheMaxSize = 10000;
+
+    @JsonProperty("authorization-cache-ttl")
+    protected long authorizationCacheTtl = 60;
+    @JsonProperty("authorization-cache-refresh-after")
+    protected long authorizationCacheRefreshAfter = 30;
+    @JsonProperty("authorization-cache-max-size")
+    protected long authorizationCacheMaxSize = 10000;
+
+    @JsonProperty("user-cache-ttl")
+    protected long userCacheTtl = 600;
+    @JsonProperty("user-cache-refresh-after")
+    protected long userCacheRefreshAfter = 60;
+    @JsonProperty("user-cache-max-size")
+    protected long userCacheMaxSize = 10000;
+
+    @JsonProperty("refresh-ahead-min-hits")
+    protected int refreshAheadMinHits = 2;
+
+    @JsonProperty("client-cache-ttl")
+    protected long clientCacheTtl = 3600;
+    @JsonProperty("client-cache-max-size")
+    protected long clientCacheMaxSize = 100;
+
+    @JsonProperty("group-index-refresh-interval")
+    protected long groupIndexRefreshInterval = 300;
+
+    @JsonProperty("role-catalog-refresh-interval")
+    protected long roleCatalogRefreshInterval = 300;
+
+    @JsonProperty("role-resolution")
+    protected String roleResolution = ROLE_RESOLUTION_REMOTE;
+    @JsonProperty("role-graph-ttl")
+    protected long roleGraphTtl = 300;
+
+    @JsonProperty("admin-events-poll-interval")
+    protected long adminEventsPollInterval = 0;
+
+    @JsonProperty("mirror-sync-interval")
+    protected long mirrorSyncInterval = 0;
+    @JsonProperty("mirror-max-staleness")
+    protected long mirrorMaxStaleness = 86400;
+    @JsonProperty("mirror-snapshot")
+    protected boolean mirrorSnapshot = true;
+
+    @JsonProperty("user-search-limit")
+    protected int userSearchLimit = 100;
+
+    @JsonProperty("http-pool-max-total")
+    protected int httpPoolMaxTotal = 50;
+    @JsonProperty("http-pool-max-per-route")
+    protected int httpPoolMaxPerRoute = 50;
+    @JsonProperty("http-keep-alive")
+    protected long httpKeepAlive = 30;
+    @JsonProperty("http-idle-timeout")
+    protected long httpIdleTimeout = 60;
+    @JsonProperty("http-connection-ttl")
+    protected long httpConnectionTtl = 300;
+    @JsonProperty("http-connect-timeout")
+    protected long httpConnectTimeout = 10;
+    @JsonProperty("http-socket-timeout")
+    protected long httpSocketTimeout = 30;
+    @JsonProperty("http-connection-request-timeout")
+    protected long httpConnectionRequestTimeout = 10;
+
+    @JsonProperty("operation-deadline")
+    protected long operationDeadline = 60;
+
+    @JsonProperty("role-lookup-threads")
+    protected int roleLookupThreads = 8;
+    @JsonProperty("role-lookup-timeout")
+    protected long roleLookupTimeout = 10;
+
+    @JsonProperty("header-token-verification")
+    protected String headerTokenVerification = TOKEN_VERIFICATION_REMOTE;
+    @JsonProperty("header-token-audience")
+    protected String headerTokenAudience;
+    @JsonProperty("header-token-issued-for")
+    protected String headerTokenIssuedFor;
+
+    @JsonProperty("claims-based-authorization")
+    protected boolean claimsBasedAuthorization = false;
+
+    public long getCredentialCacheTtl() {
+        return this.credentialCacheTtl;
+    }
+
+    public void setCredentialCacheTtl(long credentialCacheTtl) {
+        this.credentialCacheTtl = credentialCacheTtl;
+    }
+
+    public long getCredentialCacheMaxSize() {
+        return this.credentialCacheMaxSize;
+    }
+
+    public void setCredentialCacheMaxSize(long credentialCacheMaxSize) {
+        this.credentialCacheMaxSize = credentialCacheMaxSize;
+    }
+
+    public long getFailedLoginCacheTtl() {
+        return this.failedLoginCacheTtl;
+    }
+
+    public void setFailedLoginCacheTtl(long failedLoginCacheTtl) {
+        this.failedLoginCacheTtl = failedLoginCacheTtl;
+    }
+
+    public long getFailedLoginCacheMaxSize() {
+        return this.failedLoginCacheMaxSize;
+    }
+
+    public void setFailedLoginCacheMaxSize(long failedLoginCacheMaxSize) {
+        this.failedLoginCacheMaxSize = failedLoginCacheMaxSize;
+    }
+
+    public long getFailedLoginInitialBackoff() {
+        return this.failedLoginInitialBackoff;
+    }
+
+    public void setFailedLoginInitialBackoff(long failedLoginInitialBackoff) {
+        this.failedLoginInitialBackoff = failedLoginInitialBackoff;
+    }
+
+    public long getFailedLoginMaxBackoff() {
+        return this.failedLoginMaxBackoff;
+    }
+
+    public void setFailedLoginMaxBackoff(long failedLoginMaxBackoff) {
+        this.failedLoginMaxBackoff = failedLoginMaxBackoff;
+    }
+
+    public long getUserInfoCacheTtl() {
+        return this.userInfoCacheTtl;
+    }
+
+    public void setUserInfoCacheTtl(long userInfoCacheTtl) {
+        this.userInfoCacheTtl = userInfoCacheTtl;
+    }
+
+    public long getUserInfoCacheMaxSize() {
+        return this.userInfoCacheMaxSize;
+    }
+
+    public void setUserInfoCacheMaxSize(long userInfoCacheMaxSize) {
+        this.userInfoCacheMaxSize = userInfoCacheMaxSize;
+    }
+
+    public long getAuthorizationCacheTtl() {
+        return this.authorizationCacheTtl;
+    }
+
+    public void setAuthorizationCacheTtl(long authorizationCacheTtl) {
+        this.authorizationCacheTtl = authorizationCacheTtl;
+    }
+
+    public long getAuthorizationCacheRefreshAfter() {
+        return this.authorizationCacheRefreshAfter;
+    }
+
+    public void setAuthorizationCacheRefreshAfter(long authorizationCacheRefreshAfter) {
+        this.authorizationCacheRefreshAfter = authorizationCacheRefreshAfter;
+    }
+
+    public long getAuthorizationCacheMaxSize() {
+        return this.authorizationCacheMaxSize;
+    }
+
+    public void setAuthorizationCacheMaxSize(long authorizationCacheMaxSize) {
+        this.authorizationCacheMaxSize = authorizationCacheMaxSize;
+    }
+
+    public long getUserCacheTtl() {
+        return this.userCacheTtl;
+    }
+
+    public void setUserCacheTtl(long userCacheTtl) {
+        this.userCacheTtl = userCacheTtl;
+    }
+
+    public long getUserCacheRefreshAfter() {
+        return this.userCacheRefreshAfter;
+    }
+
+    public void setUserCacheRefreshAfter(long userCacheRefreshAfter) {
+        this.userCacheRefreshAfter = userCacheRefreshAfter;
+    }
+
+    public long getUserCacheMaxSize() {
+        return this.userCacheMaxSize;
+    }
+
+    public void setUserCacheMaxSize(long userCacheMaxSize) {
+        this.userCacheMaxSize = userCacheMaxSize;
+    }
+
+    public int getRefreshAheadMinHits() {
+        return this.refreshAheadMinHits;
+    }
+
+    public void setRefreshAheadMinHits(int refreshAheadMinHits) {
+        this.refreshAheadMinHits = refreshAheadMinHits;
+    }
+
+    public long getClientCacheTtl() {
+        return this.clientCacheTtl;
+    }
+
+    public void setClientCacheTtl(long clientCacheTtl) {
+        this.clientCacheTtl = clientCacheTtl;
+    }
+
+    public long getClientCacheMaxSize() {
+        return this.clientCacheMaxSize;
+    }
+
+    public void setClientCacheMaxSize(long clientCacheMaxSize) {
+        this.clientCacheMaxSize = clientCacheMaxSize;
+    }
+
+    public long getGroupIndexRefreshInterval() {
+        return this.groupIndexRefreshInterval;
+    }
+
+    public void setGroupIndexRefreshInterval(long groupIndexRefreshInterval) {
+        this.groupIndexRefreshInterval = groupIndexRefreshInterval;
+    }
+
+    public long getRoleCatalogRefreshInterval() {
+        return this.roleCatalogRefreshInterval;
+    }
+
+    public void setRoleCatalogRefreshInterval(long roleCatalogRefreshInterval) {
+        this.roleCatalogRefreshInterval = roleCatalogRefreshInterval;
+    }
+
+    public String getRoleResolution() {
+        return this.roleResolution;
+    }
+
+    public void setRoleResolution(String roleResolution) {
+        this.roleResolution = roleResolution;
+    }
+
+    public boolean isLocalRoleResolution() {
+        return ROLE_RESOLUTION_LOCAL.equalsIgnoreCase(this.roleResolution);
+    }
+
+    public long getRoleGraphTtl() {
+        return this.roleGraphTtl;
+    }
+
+    public void setRoleGraphTtl(long roleGraphTtl) {
+        this.roleGraphTtl = roleGraphTtl;
+    }
+
+    public long getAdminEventsPollInterval() {
+        return this.adminEventsPollInterval;
+    }
+
+    public void setAdminEventsPollInterval(long adminEventsPollInterval) {
+        this.adminEventsPollInterval = adminEventsPollInterval;
+    }
+
+    public long getMirrorSyncInterval() {
+        return this.mirrorSyncInterval;
+    }
+
+    public void setMirrorSyncInterval(long mirrorSyncInterval) {
+        this.mirrorSyncInterval = mirrorSyncInterval;
+    }
+
+    public long getMirrorMaxStaleness() {
+        return this.mirrorMaxStaleness;
+    }
+
+    public void setMirrorMaxStaleness(long mirrorMaxStaleness) {
+        this.mirrorMaxStaleness = mirrorMaxStaleness;
+    }
+
+    public boolean isMirrorSnapshot() {
+        return this.mirrorSnapshot;
+    }
+
+    public void setMirrorSnapshot(boolean mirrorSnapshot) {
+        this.mirrorSnapshot = mirrorSnapshot;
+    }
+
+    public int getUserSearchLimit() {
+        return this.userSearchLimit;
+    }
+
+    public void setUserSearchLimit(int userSearchLimit) {
+        this.userSearchLimit = userSearchLimit;
+    }
+
+    public int getHttpPoolMaxTotal() {
+        return this.httpPoolMaxTotal;
+    }
+
+    public void setHttpPoolMaxTotal(int httpPoolMaxTotal) {
+        this.httpPoolMaxTotal = httpPoolMaxTotal;
+    }
+
+    public int getHttpPoolMaxPerRoute() {
+        return this.httpPoolMaxPerRoute;
+    }
+
+    public void setHttpPoolMaxPerRoute(int httpPoolMaxPerRoute) {
+        this.httpPoolMaxPerRoute = httpPoolMaxPerRoute;
+    }
+
+    public long getHttpKeepAlive() {
+        return this.httpKeepAlive;
+    }
+
+    public void setHttpKeepAlive(long httpKeepAlive) {
+        this.httpKeepAlive = httpKeepAlive;
+    }
+
+    public long getHttpIdleTimeout() {
+        return this.httpIdleTimeout;
+    }
+
+    public void setHttpIdleTimeout(long httpIdleTimeout) {
+        this.httpIdleTimeout = httpIdleTimeout;
+    }
+
+    public long getHttpConnectionTtl() {
+        return this.httpConnectionTtl;
+    }
+
+    public void setHttpConnectionTtl(long httpConnectionTtl) {
+        this.httpConnectionTtl = httpConnectionTtl;
+    }
+
+    public long getHttpConnectTimeout() {
+        return this.httpConnectTimeout;
+    }
+
+    public void setHttpConnectTimeout(long httpConnectTimeout) {
+        this.httpConnectTimeout = httpConnectTimeout;
+    }
+
+    public long getHttpSocketTimeout() {
+        return this.httpSocketTimeout;
+    }
+
+    public void setHttpSocketTimeout(long httpSocketTimeout) {
+        this.httpSocketTimeout = httpSocketTimeout;
+    }
+
+    public long getHttpConnectionRequestTimeout() {
+        return this.httpConnectionRequestTimeout;
+    }
+
+    public void setHttpConnectionRequestTimeout(long httpConnectionRequestTimeout) {
+        this.httpConnectionRequestTimeout = httpConnectionRequestTimeout;
+    }
+
+    public long getOperationDeadline() {
+        return this.operationDeadline;
+    }
+
+    public void setOperationDeadline(long operationDeadline) {
+        this.operationDeadline = operationDeadline;
+    }
+
+    public int getRoleLookupThreads() {
+        return this.roleLookupThreads;
+    }
+
+    public void setRoleLookupThreads(int roleLookupThreads) {
+        this.roleLookupThreads = roleLookupThreads;
+    }
+
+    public long getRoleLookupTimeout() {
+        return this.roleLookupTimeout;
+    }
+
+    public void setRoleLookupTimeout(long roleLookupTimeout) {
+        this.roleLookupTimeout = roleLookupTimeout;
+    }
+
+    public String getHeaderTokenVerification() {
+        return this.headerTokenVerification;
+    }
+
+    public void setHeaderTokenVerification(String headerTokenVerification) {
+        this.headerTokenVerification = headerTokenVerification;
+    }
+
+    public boolean isLocalHeaderTokenVerification() {
+        return TOKEN_VERIFICATION_LOCAL.equalsIgnoreCase(this.headerTokenVerification);
+    }
+
+    public String getHeaderTokenAudience() {
+        return this.headerTokenAudience;
+    }
+
+    public void setHeaderTokenAudience(String headerTokenAudience) {
+        this.headerTokenAudience = headerTokenAudience;
+    }
+
+    public String getHeaderTokenIssuedFor() {
+        return this.headerTokenIssuedFor;
+    }
+
+    public void setHeaderTokenIssuedFor(String headerTokenIssuedFor) {
+        this.headerTokenIssuedFor = headerTokenIssuedFor;
+    }
+
+    public boolean isClaimsBasedAuthorization() {
+        return this.claimsBasedAuthorization;
+    }
+
+    public void setClaimsBasedAuthorization(boolean claimsBasedAuthorization) {
+        this.claimsBasedAuthorization = claimsBasedAuthorization;
+    }
+}
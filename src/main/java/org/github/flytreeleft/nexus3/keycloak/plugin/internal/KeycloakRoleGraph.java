@@ -0,0 +1,272 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.RefreshingSnapshot;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.SingleFlight;
+import org.keycloak.representations.idm.ClientMappingsRepresentation;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.MappingsRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolve the effective roles of the user locally, instead of requesting the <code>composite</code> role-mappings
+ * which make Keycloak expand the composite roles on every call:
+ * <ul>
+ * <li>The direct child roles of the composite roles and the role-mappings of the groups
+ * are loaded on demand and kept in memory, the concurrent loadings of the same role or group are coalesced,
+ * so every one is loaded only once;</li>
+ * <li>The transitive closure of every composite role is computed once and memoized;</li>
+ * <li>The effective roles of the user are the closures of its direct role-mappings,
+ * and the role-mappings of its groups and their parent groups;</li>
+ * <li>The parent groups are resolved from the group index of the realm, or from the groups
+ * which are loaded once for the graph if the index is disabled;</li>
+ * </ul>
+ * The whole graph will be dropped after <code>ttl</code> seconds, so the changes of the roles can be loaded again.
+ */
+public class KeycloakRoleGraph {
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakRoleGraph.class);
+
+    private final KeycloakAdminClient client;
+    private final long ttl; // milliseconds
+
+    private volatile Graph graph;
+
+    /**
+     * @param ttl
+     *         the seconds to keep the loaded graph
+     */
+    public KeycloakRoleGraph(KeycloakAdminClient client, long ttl) {
+        this.client = client;
+        this.ttl = TimeUnit.SECONDS.toMillis(ttl);
+    }
+
+    /**
+     * Get the effective roles (including the client roles of all clients) of the user
+     *
+     * @param userMappings
+     *         the direct role-mappings of the user
+     * @param groups
+     *         the groups which the user joined
+     */
+    public List<RoleRepresentation> getEffectiveRoles(
+            MappingsRepresentation userMappings, List<GroupRepresentation> groups
+    ) {
+        Graph graph = getGraph();
+        Map<String, RoleRepresentation> roles = new LinkedHashMap<>();
+
+        for (RoleRepresentation role : getMappedRoles(userMappings)) {
+            graph.expand(role, roles);
+        }
+
+        if (groups != null) {
+            for (GroupRepresentation group : getGroupsWithParents(graph, groups)) {
+                for (RoleRepresentation role : graph.getGroupRoles(group)) {
+                    graph.expand(role, roles);
+                }
+            }
+        }
+        return new ArrayList<>(roles.values());
+    }
+
+    /** Drop the loaded graph, so the roles will be loaded again */
+    public void invalidate() {
+        this.graph = null;
+    }
+
+    private Graph getGraph() {
+        Graph graph = this.graph;
+
+        if (graph == null || graph.createdAt + this.ttl < System.currentTimeMillis()) {
+            graph = new Graph();
+            this.graph = graph;
+        }
+        return graph;
+    }
+
+    /** The roles of the group are inherited by its sub groups */
+    private Collection<GroupRepresentation> getGroupsWithParents(Graph graph, List<GroupRepresentation> groups) {
+        Map<String, GroupRepresentation> all = new LinkedHashMap<>();
+
+        for (GroupRepresentation group : groups) {
+            all.put(group.getPath(), group);
+
+            String path = group.getPath();
+            for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+                String parentPath = path.substring(0, i);
+
+                if (!all.containsKey(parentPath)) {
+                    GroupRepresentation parent = graph.getGroupByPath(parentPath);
+
+                    if (parent != null) {
+                        all.put(parentPath, parent);
+                    } else {
+                        logger.warn("The parent group {} of {} isn't found", parentPath, path);
+                    }
+                }
+            }
+        }
+        return all.values();
+    }
+
+    private static List<RoleRepresentation> getMappedRoles(MappingsRepresentation mappings) {
+        List<RoleRepresentation> roles = new ArrayList<>();
+        if (mappings == null) {
+            return roles;
+        }
+
+        if (mappings.getRealmMappings() != null) {
+            roles.addAll(mappings.getRealmMappings());
+        }
+        if (mappings.getClientMappings() != null) {
+            for (ClientMappingsRepresentation clientMappings : mappings.getClientMappings().values()) {
+                if (clientMappings.getMappings() != null) {
+                    roles.addAll(clientMappings.getMappings());
+                }
+            }
+        }
+        return roles;
+    }
+
+    private class Graph {
+        private final long createdAt = System.currentTimeMillis();
+        /** The role id -> the direct child roles */
+        private final ConcurrentMap<String, List<RoleRepresentation>> composites = new ConcurrentHashMap<>();
+        /** The role id -> all the roles which are included by the role (including itself) */
+        private final ConcurrentMap<String, Collection<RoleRepresentation>> closures = new ConcurrentHashMap<>();
+        /** The group id -> the direct roles of the group */
+        private final ConcurrentMap<String, List<RoleRepresentation>> groupRoles = new ConcurrentHashMap<>();
+        private final SingleFlight<String, List<RoleRepresentation>> compositesLoadings = new SingleFlight<>();
+        private final SingleFlight<String, List<RoleRepresentation>> groupRolesLoadings = new SingleFlight<>();
+        /** The group path -> the group, it's loaded on demand if the group index is disabled */
+        private volatile Map<String, GroupRepresentation> groups;
+
+        private void expand(RoleRepresentation role, Map<String, RoleRepresentation> roles) {
+            for (RoleRepresentation r : getClosure(role)) {
+                roles.putIfAbsent(r.getId(), r);
+            }
+        }
+
+        private Collection<RoleRepresentation> getClosure(RoleRepresentation role) {
+            if (!role.isComposite()) {
+                return Collections.singletonList(role);
+            }
+
+            Collection<RoleRepresentation> closure = this.closures.get(role.getId());
+            if (closure != null) {
+                return closure;
+            }
+
+            // Walk the graph without recursion, the cycles of the composite roles are allowed by Keycloak
+            Map<String, RoleRepresentation> visited = new LinkedHashMap<>();
+            Deque<RoleRepresentation> queue = new ArrayDeque<>();
+            queue.add(role);
+
+            while (!queue.isEmpty()) {
+                RoleRepresentation current = queue.poll();
+                if (visited.containsKey(current.getId())) {
+                    continue;
+                }
+
+                Collection<RoleRepresentation> memoized = current != role ? this.closures.get(current.getId()) : null;
+                if (memoized != null) {
+                    memoized.forEach((r) -> visited.putIfAbsent(r.getId(), r));
+                    continue;
+                }
+
+                visited.put(current.getId(), current);
+                if (current.isComposite()) {
+                    queue.addAll(getComposites(current));
+                }
+            }
+
+            closure = Collections.unmodifiableCollection(new ArrayList<>(visited.values()));
+            this.closures.putIfAbsent(role.getId(), closure);
+
+            return closure;
+        }
+
+        private List<RoleRepresentation> getComposites(RoleRepresentation role) {
+            return load(this.composites, this.compositesLoadings, role.getId(), () -> {
+                List<RoleRepresentation> roles = KeycloakRoleGraph.this.client.getRoleComposites(role.getId());
+
+                return roles != null ? roles : Collections.emptyList();
+            });
+        }
+
+        private GroupRepresentation getGroupByPath(String path) {
+            RefreshingSnapshot<Map<String, GroupRepresentation>> index
+                    = KeycloakRoleGraph.this.client.getRealmGroupIndex();
+            if (index != null) {
+                return index.get().get(path);
+            }
+
+            Map<String, GroupRepresentation> groups = this.groups;
+            if (groups == null) {
+                synchronized (this) {
+                    groups = this.groups;
+                    if (groups == null) {
+                        groups = new HashMap<>();
+                        List<GroupRepresentation> all = KeycloakRoleGraph.this.client.getRealmGroups();
+                        if (all != null) {
+                            for (GroupRepresentation group : all) {
+                                groups.put(group.getPath(), group);
+                            }
+                        }
+                        this.groups = groups;
+                    }
+                }
+            }
+            return groups.get(path);
+        }
+
+        private List<RoleRepresentation> getGroupRoles(GroupRepresentation group) {
+            return load(this.groupRoles, this.groupRolesLoadings, group.getId(), () -> {
+                MappingsRepresentation mappings = KeycloakRoleGraph.this.client.getRoleMappingsOfGroup(group);
+
+                return getMappedRoles(mappings);
+            });
+        }
+
+        /**
+         * Load the roles once and keep them. The request isn't sent inside
+         * {@link ConcurrentMap#computeIfAbsent}, which would block the other updates of the map while waiting
+         * for Keycloak, the concurrent loadings of the same id wait for the in-flight one instead.
+         */
+        private List<RoleRepresentation> load(
+                ConcurrentMap<String, List<RoleRepresentation>> loaded,
+                SingleFlight<String, List<RoleRepresentation>> loadings,
+                String id,
+                Supplier<List<RoleRepresentation>> loader
+        ) {
+            List<RoleRepresentation> roles = loaded.get(id);
+            if (roles != null) {
+                return roles;
+            }
+
+            return loadings.execute(id, () -> {
+                // It may have been loaded just before this loading is started
+                List<RoleRepresentation> loading = loaded.get(id);
+                if (loading == null) {
+                    loading = loader.get();
+                    loaded.put(id, loading);
+                }
+                return loading;
+            });
+        }
+    }
+}
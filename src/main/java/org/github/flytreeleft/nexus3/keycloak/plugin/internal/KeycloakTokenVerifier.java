@@ -0,0 +1,160 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.shiro.util.StringUtils;
+import org.keycloak.TokenVerifier;
+import org.keycloak.common.VerificationException;
+import org.keycloak.common.util.KeycloakUriBuilder;
+import org.keycloak.common.util.Time;
+import org.keycloak.constants.ServiceUrlConstants;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.util.JWKSUtils;
+import org.keycloak.util.TokenUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verify the access token locally with the public keys (JWKS) of the realm.
+ * <p/>
+ * The public keys are cached for <code>public-key-cache-ttl</code> seconds,
+ * and will be reloaded when a token is signed by an unknown key (the realm keys were rotated),
+ * but not more often than every <code>min-time-between-jwks-requests</code> seconds.
+ * <p/>
+ * The token should be for the client (the <code>resource</code> of <code>keycloak.json</code>) by default,
+ * that is, its audience (<code>aud</code>) contains the client and it's issued for (<code>azp</code>) the client.
+ * <p/>
+ * See https://github.com/keycloak/keycloak/blob/master/adapters/oidc/adapter-core/src/main/java/org/keycloak/adapters/rotation/JWKPublicKeyLocator.java
+ */
+public class KeycloakTokenVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakTokenVerifier.class);
+
+    private final KeycloakAdminClient client;
+    private final String realmUrl;
+    private final String audience;
+    private final String issuedFor;
+
+    private volatile Map<String, PublicKey> publicKeys = Collections.emptyMap();
+    private volatile int lastRequestTime; // seconds
+
+    public KeycloakTokenVerifier(KeycloakAdminClient client) {
+        this.client = client;
+
+        AdapterConfig config = client.getConfig();
+        KeycloakPluginConfig pluginConfig = client.getPluginConfig();
+
+        this.realmUrl = KeycloakUriBuilder.fromUri(config.getAuthServerUrl())
+                                          .path(ServiceUrlConstants.REALM_INFO_PATH)
+                                          .build(config.getRealm())
+                                          .toString();
+        this.audience = StringUtils.hasText(pluginConfig.getHeaderTokenAudience())
+                        ? pluginConfig.getHeaderTokenAudience()
+                        : config.getResource();
+
+        String issuedFor = StringUtils.hasText(pluginConfig.getHeaderTokenIssuedFor())
+                           ? pluginConfig.getHeaderTokenIssuedFor()
+                           : config.getResource();
+        this.issuedFor = KeycloakPluginConfig.TOKEN_ISSUED_FOR_ANY.equals(issuedFor) ? null : issuedFor;
+
+        if (!StringUtils.hasText(this.audience) || !StringUtils.hasText(issuedFor)) {
+            throw new IllegalStateException("The token can not be verified locally without the audience"
+                                            + " and the client which it's issued for, please specify the"
+                                            + " 'resource' of keycloak.json or 'header-token-audience'"
+                                            + " and 'header-token-issued-for'");
+        }
+    }
+
+    /**
+     * Verify the signature, expiration, token type (only the bearer token is accepted, e.g. the ID token is rejected),
+     * issuer (the realm url), audience (<code>aud</code>) and the party (<code>azp</code>)
+     * which the token was issued for.
+     *
+     * @return the verified access token
+     * @throws VerificationException
+     *         if the token is invalid
+     */
+    public AccessToken verify(String tokenString) throws VerificationException {
+        TokenVerifier<AccessToken> verifier = TokenVerifier.create(tokenString, AccessToken.class)
+                                                           .withChecks(TokenVerifier.IS_ACTIVE)
+                                                           .tokenType(TokenUtil.TOKEN_TYPE_BEARER)
+                                                           .realmUrl(this.realmUrl);
+
+        String kid = verifier.getHeader().getKeyId();
+        PublicKey publicKey = getPublicKey(kid);
+        if (publicKey == null) {
+            throw new VerificationException("No public key found for the key id " + kid);
+        }
+
+        verifier.publicKey(publicKey).audience(this.audience);
+        if (this.issuedFor != null) {
+            verifier.issuedFor(this.issuedFor);
+        }
+
+        return verifier.verify().getToken();
+    }
+
+    private PublicKey getPublicKey(String kid) {
+        PublicKey publicKey = lookupPublicKey(kid);
+
+        if (publicKey == null || isPublicKeyCacheExpired()) {
+            synchronized (this) {
+                publicKey = lookupPublicKey(kid);
+
+                if ((publicKey == null || isPublicKeyCacheExpired()) && isPublicKeyRequestAllowed()) {
+                    refreshPublicKeys();
+                    publicKey = lookupPublicKey(kid);
+                }
+            }
+        }
+        return publicKey;
+    }
+
+    private PublicKey lookupPublicKey(String kid) {
+        Map<String, PublicKey> keys = this.publicKeys;
+
+        if (kid != null) {
+            return keys.get(kid);
+        } else if (keys.size() == 1) {
+            return keys.values().iterator().next();
+        }
+        return null;
+    }
+
+    private boolean isPublicKeyCacheExpired() {
+        int ttl = this.client.getConfig().getPublicKeyCacheTtl();
+
+        return ttl > 0 && Time.currentTime() >= this.lastRequestTime + ttl;
+    }
+
+    private boolean isPublicKeyRequestAllowed() {
+        int minTime = this.client.getConfig().getMinTimeBetweenJwksRequests();
+
+        return Time.currentTime() >= this.lastRequestTime + minTime;
+    }
+
+    private void refreshPublicKeys() {
+        this.lastRequestTime = Time.currentTime();
+
+        JSONWebKeySet jwks;
+        try {
+            jwks = this.client.obtainJsonWebKeySet();
+        } catch (RuntimeException e) {
+            // Keep using the existing keys until Keycloak is available again
+            logger.warn("Failed to obtain the public keys of the realm {}", this.client.getRealm(), e);
+            return;
+        }
+
+        if (jwks == null) {
+            logger.warn("The public keys of the realm {} can not be obtained", this.client.getRealm());
+            return;
+        }
+
+        this.publicKeys = Collections.unmodifiableMap(JWKSUtils.getKeysForUse(jwks, JWK.Use.SIG));
+        logger.info("Reloaded the public keys {} of the realm {}", this.publicKeys.keySet(), this.client.getRealm());
+    }
+}
@@ -12,12 +12,16 @@
  */
 package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
 import javax.enterprise.inject.Typed;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import com.google.common.base.Suppliers;
 import org.github.flytreeleft.nexus3.keycloak.plugin.KeycloakAuthenticatingRealm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +49,12 @@ public class KeycloakUserManager extends AbstractReadOnlyUserManager {
         this.client = client;
     }
 
+    /** Release the shared client when the plugin is stopped */
+    @PreDestroy
+    public void destroy() {
+        NexusKeycloakClientLoader.releaseClient(this.client);
+    }
+
     @Override
     public String getAuthenticationRealmName() {
         return KeycloakAuthenticatingRealm.NAME;
@@ -58,7 +68,10 @@ public class KeycloakUserManager extends AbstractReadOnlyUserManager {
     @Override
     public Set<User> listUsers() {
         Set<User> users = this.client.findUsers();
-        return users.stream().map(user -> completeUserRolesAndSource(user)).collect(Collectors.toSet());
+        // Resolve the roles of all users at once when the roles of any user are accessed
+        Supplier<Map<String, Set<String>>> roles = Suppliers.memoize(this.client::findRoleIdsOfAllUsers);
+
+        return users.stream().map(user -> completeUserSource(user, roles)).collect(Collectors.toSet());
     }
 
     @Override
@@ -69,7 +82,10 @@ public class KeycloakUserManager extends AbstractReadOnlyUserManager {
     @Override
     public Set<User> searchUsers(UserSearchCriteria criteria) {
         Set<User> users = this.client.findUserByCriteria(criteria);
-        return users.stream().map(user -> completeUserRolesAndSource(user)).collect(Collectors.toSet());
+        Set<String> userIds = users.stream().map(User::getUserId).collect(Collectors.toSet());
+        Supplier<Map<String, Set<String>>> roles = Suppliers.memoize(() -> this.client.findRoleIdsOfUsers(userIds));
+
+        return users.stream().map(user -> completeUserSource(user, roles)).collect(Collectors.toSet());
     }
 
     @Override
@@ -81,6 +97,13 @@ public class KeycloakUserManager extends AbstractReadOnlyUserManager {
         return completeUserRolesAndSource(foundUser);
     }
 
+    /** The roles of the user will be resolved on the first access */
+    private User completeUserSource(User user, Supplier<Map<String, Set<String>>> roles) {
+        user.setSource(getSource());
+
+        return new LazyRolesUser(user, roles);
+    }
+
     private User completeUserRolesAndSource(User user) {
         user.setSource(getSource());
 
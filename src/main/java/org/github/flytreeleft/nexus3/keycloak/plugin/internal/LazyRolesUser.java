@@ -0,0 +1,80 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.sonatype.nexus.security.role.RoleIdentifier;
+import org.sonatype.nexus.security.user.User;
+
+/**
+ * The user whose roles are resolved on the first access.
+ * <p/>
+ * The users of the same result set share the same memoized <code>roles</code> supplier,
+ * so the roles of all of them are loaded together once any one of them is touched,
+ * and no role will be loaded if the caller only needs the names of the users.
+ */
+public class LazyRolesUser extends User {
+    private final Supplier<Map<String, Set<String>>> roles;
+    private volatile boolean resolved;
+
+    /**
+     * @param user
+     *         the user to copy from
+     * @param roles
+     *         the memoized supplier of the role ids of all users in the result set (by the user id)
+     */
+    public LazyRolesUser(User user, Supplier<Map<String, Set<String>>> roles) {
+        this.roles = roles;
+
+        setUserId(user.getUserId());
+        setFirstName(user.getFirstName());
+        setLastName(user.getLastName());
+        setEmailAddress(user.getEmailAddress());
+        setSource(user.getSource());
+        setReadOnly(user.isReadOnly());
+        setStatus(user.getStatus());
+    }
+
+    @Override
+    public Set<RoleIdentifier> getRoles() {
+        resolveRoles();
+        return super.getRoles();
+    }
+
+    @Override
+    public void addRole(RoleIdentifier roleIdentifier) {
+        resolveRoles();
+        super.addRole(roleIdentifier);
+    }
+
+    @Override
+    public void addAllRoles(Set<RoleIdentifier> roleIdentifiers) {
+        resolveRoles();
+        super.addAllRoles(roleIdentifiers);
+    }
+
+    @Override
+    public void setRoles(Set<RoleIdentifier> roles) {
+        this.resolved = true;
+        super.setRoles(roles);
+    }
+
+    private void resolveRoles() {
+        if (this.resolved) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!this.resolved) {
+                Set<String> roleIds = this.roles.get().getOrDefault(getUserId(), Collections.emptySet());
+
+                setRoles(roleIds.stream()
+                                .map(roleId -> new RoleIdentifier(getSource(), roleId))
+                                .collect(Collectors.toSet()));
+            }
+        }
+    }
+}
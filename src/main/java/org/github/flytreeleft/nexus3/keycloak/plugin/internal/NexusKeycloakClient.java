@@ -2,18 +2,46 @@ package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.io.FileUtils;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.authc.UsernamePasswordToken;
 import org.apache.shiro.util.StringUtils;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.CredentialCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.ExpiringCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.RefreshingSnapshot;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.SingleFlight;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.LookupExecutor;
 import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mapper.KeycloakMapper;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror.KeycloakDirectory;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror.KeycloakDirectorySynchronizer;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror.KeycloakMembershipIndex;
+import org.keycloak.common.VerificationException;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
 import org.keycloak.representations.AccessTokenResponse;
 import org.keycloak.representations.UserInfo;
+import org.keycloak.representations.idm.AdminEventRepresentation;
+import org.keycloak.representations.idm.ClientRepresentation;
 import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.MappingsRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.slf4j.Logger;
@@ -24,14 +52,49 @@ import org.sonatype.nexus.security.user.UserSearchCriteria;
 
 public class NexusKeycloakClient {
     private static final Logger logger = LoggerFactory.getLogger(NexusKeycloakClient.class);
+    /** The max seconds to keep the roles which are derived from the token claims */
+    private static final long CLAIMS_ROLE_IDS_MAX_TTL = TimeUnit.HOURS.toSeconds(1);
 
     private String source;
     private String sourceCode;
     private File config;
     private transient KeycloakAdminClient keycloakAdminClient;
+    private transient CredentialCache credentialCache;
+    private transient KeycloakTokenVerifier tokenVerifier;
+    private transient ExpiringCache<String, Set<String>> claimsRoleIds;
+    private transient LookupExecutor roleLookupExecutor;
+    private transient LookupExecutor userLookupExecutor;
+    private transient RefreshingSnapshot<Map<String, Role>> roleCatalog;
+    private transient KeycloakRoleGraph roleGraph;
+    private transient KeycloakAdminEventPoller adminEventPoller;
+    private transient KeycloakDirectorySynchronizer directorySynchronizer;
+    private final transient List<KeycloakChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final transient SingleFlight<String, Set<String>> roleIdsLookups = new SingleFlight<>();
 
     public NexusKeycloakClient(String source) {
         this.source = source;
+        this.credentialCache = new CredentialCache(0, 0);
+        this.claimsRoleIds = new ExpiringCache<>(0, 0);
+        this.roleLookupExecutor = new LookupExecutor("keycloak-role-lookup", 0, 0);
+        this.userLookupExecutor = new LookupExecutor("keycloak-user-lookup", 0, 0);
+    }
+
+    /** Only for testing */
+    NexusKeycloakClient(
+            String source,
+            String sourceCode,
+            KeycloakAdminClient keycloakAdminClient,
+            KeycloakDirectorySynchronizer directorySynchronizer
+    ) {
+        this(source);
+        this.sourceCode = sourceCode;
+        this.keycloakAdminClient = keycloakAdminClient;
+        this.directorySynchronizer = directorySynchronizer;
+
+        KeycloakPluginConfig pluginConfig = keycloakAdminClient.getPluginConfig();
+        if (pluginConfig != null && pluginConfig.isClaimsBasedAuthorization()) {
+            this.claimsRoleIds = new ExpiringCache<>(CLAIMS_ROLE_IDS_MAX_TTL, pluginConfig.getCredentialCacheMaxSize());
+        }
     }
 
     public NexusKeycloakClient(String source, String sourceCode, File config) {
@@ -44,6 +107,183 @@ public class NexusKeycloakClient {
         } catch (IOException e) {
             throw new RuntimeException("Could not read " + this.config.getName(), e);
         }
+
+        KeycloakPluginConfig pluginConfig = this.keycloakAdminClient.getPluginConfig();
+        this.credentialCache = new CredentialCache(pluginConfig.getCredentialCacheTtl(),
+                                                   pluginConfig.getCredentialCacheMaxSize());
+        if (pluginConfig.isLocalHeaderTokenVerification()) {
+            this.tokenVerifier = new KeycloakTokenVerifier(this.keycloakAdminClient);
+        }
+
+        long claimsRoleIdsTtl = pluginConfig.isClaimsBasedAuthorization() ? CLAIMS_ROLE_IDS_MAX_TTL : 0;
+        this.claimsRoleIds = new ExpiringCache<>(claimsRoleIdsTtl, pluginConfig.getCredentialCacheMaxSize());
+
+        this.roleLookupExecutor = new LookupExecutor("keycloak-role-lookup",
+                                                     pluginConfig.getRoleLookupThreads(),
+                                                     pluginConfig.getRoleLookupTimeout());
+        // The lookups of every user have their own timeout, so the users are only limited by the operation deadline
+        this.userLookupExecutor = new LookupExecutor("keycloak-user-lookup", pluginConfig.getRoleLookupThreads(), 0);
+        if (pluginConfig.isLocalRoleResolution()) {
+            this.roleGraph = new KeycloakRoleGraph(this.keycloakAdminClient, pluginConfig.getRoleGraphTtl());
+        }
+
+        if (pluginConfig.getRoleCatalogRefreshInterval() > 0) {
+            this.roleCatalog = new RefreshingSnapshot<>("roles of " + this.source,
+                                                        this::loadRoleCatalog,
+                                                        pluginConfig.getRoleCatalogRefreshInterval(),
+                                                        this.keycloakAdminClient.getScheduler());
+        }
+
+        if (pluginConfig.getMirrorSyncInterval() > 0) {
+            KeycloakDirectorySynchronizer.RoleMapper roleMapper = new KeycloakDirectorySynchronizer.RoleMapper() {
+                @Override
+                public Set<String> toRoleIds(List<RoleRepresentation> roles, List<GroupRepresentation> groups) {
+                    return toEffectiveRoleIds(roles, groups);
+                }
+
+                @Override
+                public Set<Role> toRoles(
+                        List<RoleRepresentation> clientRoles,
+                        List<RoleRepresentation> realmRoles,
+                        List<GroupRepresentation> groups
+                ) {
+                    return KeycloakMapper.toRoles(getSource(), getSourceCode(), clientRoles, realmRoles, groups);
+                }
+            };
+
+            File snapshotFile = pluginConfig.isMirrorSnapshot()
+                                ? new File(this.config.getParentFile(), this.config.getName() + ".directory")
+                                : null;
+
+            this.directorySynchronizer = new KeycloakDirectorySynchronizer(this.keycloakAdminClient,
+                                                                           pluginConfig.getMirrorSyncInterval(),
+                                                                           pluginConfig.getMirrorMaxStaleness(),
+                                                                           snapshotFile,
+                                                                           roleMapper);
+            this.directorySynchronizer.start();
+        }
+
+        if (pluginConfig.getAdminEventsPollInterval() > 0) {
+            File cursorFile = new File(this.config.getParentFile(), this.config.getName() + ".admin-events");
+
+            this.adminEventPoller = new KeycloakAdminEventPoller(this.keycloakAdminClient,
+                                                                 cursorFile,
+                                                                 pluginConfig.getAdminEventsPollInterval(),
+                                                                 this::onAdminEvent);
+            this.adminEventPoller.start();
+        }
+    }
+
+    public void addChangeListener(KeycloakChangeListener listener) {
+        this.changeListeners.add(listener);
+    }
+
+    /** Stop the background tasks and the lookup threads, and release the connections to Keycloak */
+    public void shutdown() {
+        if (this.adminEventPoller != null) {
+            this.adminEventPoller.stop();
+        }
+        if (this.directorySynchronizer != null) {
+            this.directorySynchronizer.stop();
+        }
+        if (this.roleCatalog != null) {
+            this.roleCatalog.stop();
+        }
+        this.roleLookupExecutor.shutdown();
+        this.userLookupExecutor.shutdown();
+
+        if (this.keycloakAdminClient != null) {
+            this.keycloakAdminClient.close();
+        }
+    }
+
+    /** Evict the caches precisely according to the admin event */
+    void onAdminEvent(AdminEventRepresentation event) {
+        String type = event.getResourceType();
+        String[] path = event.getResourcePath() != null ? event.getResourcePath().split("/") : new String[0];
+        boolean ofUser = path.length > 1 && "users".equals(path[0]);
+
+        logger.debug("Received the admin event {} {} {}", event.getOperationType(), type, event.getResourcePath());
+        if (type == null) {
+            return;
+        }
+
+        switch (type) {
+            case "USER":
+            case "GROUP_MEMBERSHIP":
+            case "REALM_ROLE_MAPPING":
+            case "CLIENT_ROLE_MAPPING":
+                if (ofUser) {
+                    onUserChanged(path[1]);
+                } else {
+                    // The role-mappings of a group or the scope-mappings of a client are changed
+                    onRolesChanged();
+                }
+                break;
+            case "GROUP":
+                RefreshingSnapshot<Map<String, GroupRepresentation>> groupIndex
+                        = this.keycloakAdminClient.getRealmGroupIndex();
+                if (groupIndex != null) {
+                    groupIndex.refresh();
+                }
+                refreshRoleCatalog();
+                onRolesChanged();
+                break;
+            case "REALM_ROLE":
+            case "CLIENT_ROLE":
+                refreshRoleCatalog();
+                onRolesChanged();
+                break;
+            case "CLIENT":
+                this.keycloakAdminClient.getRealmClientCache().invalidateAll();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onUserChanged(String id) {
+        UserRepresentation user = this.keycloakAdminClient.getUserCache().findById(id);
+        if (user == null) {
+            user = this.keycloakAdminClient.getUserById(id);
+        }
+
+        // The deleted user can not be found, so just evict all
+        if (user == null) {
+            this.credentialCache.invalidateAll();
+            onRolesChanged();
+            return;
+        }
+
+        this.credentialCache.invalidate(user.getUsername());
+        this.claimsRoleIds.invalidate(user.getUsername());
+        this.keycloakAdminClient.getUserCache().invalidate(user.getUsername());
+        if (user.getEmail() != null) {
+            this.credentialCache.invalidate(user.getEmail());
+            this.claimsRoleIds.invalidate(user.getEmail());
+        }
+
+        if (this.directorySynchronizer != null) {
+            this.directorySynchronizer.requestSync();
+        }
+
+        for (KeycloakChangeListener listener : this.changeListeners) {
+            listener.onUserChanged(user);
+        }
+    }
+
+    private void onRolesChanged() {
+        this.claimsRoleIds.invalidateAll();
+        if (this.roleGraph != null) {
+            this.roleGraph.invalidate();
+        }
+        if (this.directorySynchronizer != null) {
+            this.directorySynchronizer.requestSync();
+        }
+
+        for (KeycloakChangeListener listener : this.changeListeners) {
+            listener.onAllUsersChanged();
+        }
     }
 
     public boolean authenticate(AuthenticationToken token) {
@@ -55,45 +295,246 @@ public class NexusKeycloakClient {
         return false;
     }
 
+    /** Check if the password of the token matches the cached one, which has been verified by Keycloak */
+    public boolean isCredentialCached(UsernamePasswordToken token) {
+        return this.credentialCache.verify(token.getUsername(), new String(token.getPassword()));
+    }
+
     public boolean authenticate(UsernamePasswordToken token) {
         String principal = token.getUsername();
         String credentials = new String(token.getPassword());
+
+        if (this.credentialCache.verify(principal, credentials)) {
+            logger.debug("The credentials of {} are matched with the cached one", principal);
+            return true;
+        }
+
         AccessTokenResponse accessTokenResponse = this.keycloakAdminClient.obtainAccessToken(principal, credentials);
+        boolean authenticated = accessTokenResponse != null && StringUtils.hasText(accessTokenResponse.getToken());
 
-        return accessTokenResponse != null && StringUtils.hasText(accessTokenResponse.getToken());
+        if (authenticated) {
+            this.credentialCache.put(principal, credentials);
+            cacheClaimsRoleIds(principal, accessTokenResponse.getToken());
+        }
+        return authenticated;
     }
 
     public boolean authenticate(KeycloakHttpHeaderAuthToken token) {
         String principal = token.getPrincipal();
         String credentials = token.getCredentials().toString();
 
+        if (this.tokenVerifier != null) {
+            AccessToken accessToken;
+            try {
+                accessToken = this.tokenVerifier.verify(credentials);
+            } catch (VerificationException e) {
+                logger.info("The token of {} can not be verified: {}", principal, e.getMessage());
+                return false;
+            }
+
+            return matchPrincipal(principal,
+                                  accessToken.getPreferredUsername(),
+                                  accessToken.getEmail(),
+                                  accessToken.getEmailVerified());
+        }
+
         UserInfo userInfo = this.keycloakAdminClient.obtainUserInfo(credentials);
         if (userInfo == null) {
             logger.info("The UserInfo of {} can not be obtained", principal);
             return false;
         }
 
-        if (userInfo.getPreferredUsername().equals(principal)) {
+        return matchPrincipal(principal,
+                              userInfo.getPreferredUsername(),
+                              userInfo.getEmail(),
+                              userInfo.getEmailVerified());
+    }
+
+    private boolean matchPrincipal(String principal, String preferredUsername, String email, Boolean emailVerified) {
+        if (principal.equals(preferredUsername)) {
             return true;
         }
         logger.info("The principal {} doesn't match the preferred username, try to verify it as an email", principal);
 
         if (this.keycloakAdminClient.isEmail(principal)) {
-            return userInfo.getEmailVerified() && principal.equals(userInfo.getEmail());
+            return Boolean.TRUE.equals(emailVerified) && principal.equals(email);
         }
         logger.info("The principal {} isn't an email, authentication is failed", principal);
 
         return false;
     }
 
+    /**
+     * Map the roles and groups in the claims of the access token to the Nexus roles,
+     * and keep them until the token is expired, so {@link #findRoleIdsByUserId(String)}
+     * doesn't need to request the admin API for the authenticated user.
+     * <p/>
+     * The token is obtained from Keycloak directly, so its signature isn't verified again.
+     */
+    private void cacheClaimsRoleIds(String principal, String token) {
+        if (!this.claimsRoleIds.isEnabled()) {
+            return;
+        }
+
+        AccessToken accessToken;
+        try {
+            accessToken = new JWSInput(token).readJsonContent(AccessToken.class);
+        } catch (JWSInputException e) {
+            logger.warn("The access token of {} can not be parsed: {}", principal, e.getMessage());
+            return;
+        }
+
+        String client = this.keycloakAdminClient.getConfig().getResource();
+        List<RoleRepresentation> clientRoles = toRoleRepresentations(accessToken.getResourceAccess(client), true);
+        List<RoleRepresentation> realmRoles = toRoleRepresentations(accessToken.getRealmAccess(), false);
+        List<GroupRepresentation> realmGroups = toGroupRepresentations(accessToken.getOtherClaims().get("groups"));
+
+        Long exp = accessToken.getExp();
+        this.claimsRoleIds.put(principal,
+                               Collections.unmodifiableSet(toRoleIds(clientRoles, realmRoles, realmGroups)),
+                               exp != null && exp > 0 ? TimeUnit.SECONDS.toMillis(exp) : Long.MAX_VALUE);
+    }
+
+    private List<RoleRepresentation> toRoleRepresentations(AccessToken.Access access, boolean clientRole) {
+        List<RoleRepresentation> roles = new ArrayList<>();
+
+        if (access != null && access.getRoles() != null) {
+            for (String name : access.getRoles()) {
+                RoleRepresentation role = new RoleRepresentation(name, null, false);
+                role.setClientRole(clientRole);
+
+                roles.add(role);
+            }
+        }
+        return roles;
+    }
+
+    /** The claim <code>groups</code> is put by the "Group Membership" mapper of the client */
+    private List<GroupRepresentation> toGroupRepresentations(Object claim) {
+        List<GroupRepresentation> groups = new ArrayList<>();
+
+        if (claim instanceof List) {
+            for (Object path : (List<?>) claim) {
+                GroupRepresentation group = new GroupRepresentation();
+                // The group path will be the group name if the option "Full group path" of the mapper is off
+                group.setPath(path.toString().startsWith("/") ? path.toString() : "/" + path);
+
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    /** Forget the roles of the user which are derived from the token claims, and the cached user */
+    public void invalidateRoleIds(String userId) {
+        this.claimsRoleIds.invalidate(userId);
+        if (this.keycloakAdminClient != null) {
+            this.keycloakAdminClient.getUserCache().invalidate(userId);
+        }
+    }
+
+    public void invalidateAllRoleIds() {
+        this.claimsRoleIds.invalidateAll();
+        if (this.roleGraph != null) {
+            this.roleGraph.invalidate();
+        }
+        if (this.keycloakAdminClient != null) {
+            this.keycloakAdminClient.getUserCache().invalidateAll();
+        }
+    }
+
     public Set<String> findRoleIdsByUserId(String userId) {
+        Set<String> roleIds = this.claimsRoleIds.get(userId);
+        if (roleIds != null) {
+            logger.debug("The roles of {} are derived from the claims of its access token", userId);
+            return roleIds;
+        }
+
+        KeycloakDirectory directory = getDirectory();
+        UserRepresentation mirroredUser = directory != null ? findUserInDirectory(directory, userId) : null;
+        if (mirroredUser != null) {
+            return directory.getRoleIds(mirroredUser.getUsername());
+        }
+
+        // Coalesce the concurrent lookups for the same user
+        return this.roleIdsLookups.execute(userId, () -> Collections.unmodifiableSet(doFindRoleIdsByUserId(userId)));
+    }
+
+    private Set<String> doFindRoleIdsByUserId(String userId) {
         String client = this.keycloakAdminClient.getConfig().getResource();
         UserRepresentation user = this.keycloakAdminClient.getUser(userId);
 
-        List<RoleRepresentation> clientRoles = this.keycloakAdminClient.getRealmClientRolesOfUser(client, user);
-        List<RoleRepresentation> realmRoles = this.keycloakAdminClient.getRealmRolesOfUser(user);
-        List<GroupRepresentation> realmGroups = this.keycloakAdminClient.getRealmGroupsOfUser(user);
+        if (this.roleGraph != null) {
+            return findRoleIdsByRoleGraph(user);
+        }
+
+        // The lookups of the roles and groups are independent, so they are run concurrently
+        long deadline = this.roleLookupExecutor.newDeadline();
+        Future<List<RoleRepresentation>> clientRoles = this.roleLookupExecutor.submit(() -> this.keycloakAdminClient
+                .getRealmClientRolesOfUser(client, user));
+        Future<List<RoleRepresentation>> realmRoles = this.roleLookupExecutor.submit(() -> this.keycloakAdminClient
+                .getRealmRolesOfUser(user));
+        Future<List<GroupRepresentation>> realmGroups = this.roleLookupExecutor.submit(() -> this.keycloakAdminClient
+                .getRealmGroupsOfUser(user));
 
+        try {
+            return toRoleIds(this.roleLookupExecutor.get(clientRoles, deadline),
+                             this.roleLookupExecutor.get(realmRoles, deadline),
+                             this.roleLookupExecutor.get(realmGroups, deadline));
+        } finally {
+            // Stop the remaining lookups if any one is failed
+            clientRoles.cancel(true);
+            realmRoles.cancel(true);
+            realmGroups.cancel(true);
+        }
+    }
+
+    /** Resolve the effective roles from the direct role-mappings and groups of the user locally */
+    private Set<String> findRoleIdsByRoleGraph(UserRepresentation user) {
+        if (user == null) {
+            return toRoleIds(null, null, null);
+        }
+
+        long deadline = this.roleLookupExecutor.newDeadline();
+        Future<MappingsRepresentation> userMappings = this.roleLookupExecutor.submit(() -> this.keycloakAdminClient
+                .getRoleMappingsOfUser(user));
+        Future<List<GroupRepresentation>> realmGroups = this.roleLookupExecutor.submit(() -> this.keycloakAdminClient
+                .getRealmGroupsOfUser(user));
+
+        try {
+            MappingsRepresentation mappings = this.roleLookupExecutor.get(userMappings, deadline);
+            List<GroupRepresentation> groups = this.roleLookupExecutor.get(realmGroups, deadline);
+            List<RoleRepresentation> roles = this.roleGraph.getEffectiveRoles(mappings, groups);
+
+            return toEffectiveRoleIds(roles, groups);
+        } finally {
+            userMappings.cancel(true);
+            realmGroups.cancel(true);
+        }
+    }
+
+    /** Map the effective roles (including the client roles of all clients) and the groups of the user */
+    private Set<String> toEffectiveRoleIds(List<RoleRepresentation> roles, List<GroupRepresentation> groups) {
+        String client = this.keycloakAdminClient.getConfig().getResource();
+        ClientRepresentation clientRepresentation = this.keycloakAdminClient.getRealmClient(client);
+        String clientUuid = clientRepresentation != null ? clientRepresentation.getId() : null;
+
+        // Only the client roles of the current client are mapped
+        List<RoleRepresentation> clientRoles = roles.stream()
+                                                    .filter(role -> Boolean.TRUE.equals(role.getClientRole())
+                                                                    && role.getContainerId() != null
+                                                                    && role.getContainerId().equals(clientUuid))
+                                                    .collect(Collectors.toList());
+        List<RoleRepresentation> realmRoles = roles.stream()
+                                                   .filter(role -> !Boolean.TRUE.equals(role.getClientRole()))
+                                                   .collect(Collectors.toList());
+
+        return toRoleIds(clientRoles, realmRoles, groups);
+    }
+
+    private Set<String> toRoleIds(List<RoleRepresentation> clientRoles,
+                                  List<RoleRepresentation> realmRoles,
+                                  List<GroupRepresentation> realmGroups) {
         // Convert to compatible roles to make sure the existing role-mappings are still working
         if (getSourceCode() == null) {
             return KeycloakMapper.toCompatibleRoleIds(getSource(), clientRoles, realmRoles, realmGroups);
@@ -102,13 +543,84 @@ public class NexusKeycloakClient {
         }
     }
 
+    /**
+     * Find the role ids of all users (by the username) in bulk, the direct role-mappings and groups
+     * are got from {@link KeycloakMembershipIndex} and expanded locally, so the requests are proportional to
+     * the number of the roles and groups instead of the users.
+     */
+    public Map<String, Set<String>> findRoleIdsOfAllUsers() {
+        KeycloakDirectory directory = getDirectory();
+        Map<String, Set<String>> roleIds = new HashMap<>();
+
+        if (directory != null) {
+            directory.getUsers()
+                     .forEach((user) -> roleIds.put(user.getUsername(), directory.getRoleIds(user.getUsername())));
+            return roleIds;
+        }
+
+        KeycloakMembershipIndex index = KeycloakMembershipIndex.load(this.keycloakAdminClient);
+        KeycloakRoleGraph graph = this.roleGraph != null
+                                  ? this.roleGraph
+                                  : new KeycloakRoleGraph(this.keycloakAdminClient, getPluginConfig().getRoleGraphTtl());
+
+        iterateUsers().forEachRemaining((user) -> {
+            String username = user.getUsername();
+            List<GroupRepresentation> groups = index.getGroups(username);
+            List<RoleRepresentation> roles = graph.getEffectiveRoles(index.getRoleMappings(username), groups);
+
+            roleIds.put(username, Collections.unmodifiableSet(toEffectiveRoleIds(roles, groups)));
+        });
+        return roleIds;
+    }
+
+    /**
+     * Find the role ids of the searched users (by the username) user by user,
+     * and at most <code>role-lookup-threads</code> users are looked up concurrently.
+     * <p/>
+     * Note: The bulk lookup {@link #findRoleIdsOfAllUsers()} requests the members of every role and group
+     * of the realm, so it's only used for listing all users, not for the searching.
+     */
+    public Map<String, Set<String>> findRoleIdsOfUsers(Collection<String> userIds) {
+        Map<String, Future<Set<String>>> lookups = new LinkedHashMap<>();
+        long deadline = this.userLookupExecutor.newDeadline();
+
+        userIds.forEach((userId) -> lookups.put(userId,
+                                                this.userLookupExecutor.submit(() -> findRoleIdsByUserId(userId))));
+
+        Map<String, Set<String>> roleIds = new HashMap<>();
+        try {
+            for (Map.Entry<String, Future<Set<String>>> lookup : lookups.entrySet()) {
+                roleIds.put(lookup.getKey(), this.userLookupExecutor.get(lookup.getValue(), deadline));
+            }
+        } finally {
+            // Stop the remaining lookups if any one is failed
+            lookups.values().forEach((lookup) -> lookup.cancel(true));
+        }
+        return roleIds;
+    }
+
     public User findUserByUserId(String userId) {
-        UserRepresentation user = this.keycloakAdminClient.getUser(userId);
+        KeycloakDirectory directory = getDirectory();
+        UserRepresentation user = directory != null ? findUserInDirectory(directory, userId) : null;
+        if (user == null) {
+            user = this.keycloakAdminClient.getUser(userId);
+        }
 
         return KeycloakMapper.toUser(getSource(), user);
     }
 
     public Role findRoleByRoleId(String roleId) {
+        Map<String, Role> roles = getRoleCatalog();
+        if (roles != null) {
+            Role role = roles.get(roleId);
+
+            // The role id without type is compatible with the client role
+            if (role == null && getSourceCode() == null && !roleId.contains(":")) {
+                role = roles.get(KeycloakMapper.CLIENT_ROLE_PREFIX + ":" + roleId);
+            }
+            return role;
+        }
+
         String[] splits = roleId.split(":");
         String roleType = splits.length > 1 ? splits[0] : null;
         String roleSourceCode = splits.length > 2 ? splits[1] : null;
@@ -133,14 +645,31 @@ public class NexusKeycloakClient {
         return KeycloakMapper.toRole(getSource(), getSourceCode(), role);
     }
 
+    /** Only the usernames are picked from the responses, and they are kept in a compact immutable set */
     public Set<String> findAllUserIds() {
-        return findUsers().stream().map(User::getUserId).collect(Collectors.toSet());
+        KeycloakDirectory directory = getDirectory();
+        ImmutableSet.Builder<String> userIds = ImmutableSet.builder();
+
+        if (directory != null) {
+            directory.getUsers().forEach((user) -> userIds.add(user.getUsername()));
+        } else {
+            this.keycloakAdminClient.forEachUsername(userIds::add);
+        }
+        return userIds.build();
     }
 
     public Set<User> findUsers() {
-        List<UserRepresentation> users = this.keycloakAdminClient.getUsers();
+        Set<User> users = new LinkedHashSet<>();
 
-        return KeycloakMapper.toUsers(getSource(), users);
+        iterateUsers().forEachRemaining((user) -> users.add(KeycloakMapper.toUser(getSource(), user)));
+        return users;
+    }
+
+    /** Iterate the users of the mirrored directory, or the users of Keycloak page by page */
+    private Iterator<UserRepresentation> iterateUsers() {
+        KeycloakDirectory directory = getDirectory();
+
+        return directory != null ? directory.getUsers().iterator() : this.keycloakAdminClient.iterateUsers();
     }
 
     public Set<User> findUserByCriteria(UserSearchCriteria criteria) {
@@ -152,6 +681,11 @@ public class NexusKeycloakClient {
             search = criteria.getEmail();
         }
 
+        KeycloakDirectory directory = getDirectory();
+        if (directory != null) {
+            return KeycloakMapper.toUsers(getSource(), searchUsersInDirectory(directory, search, criteria));
+        }
+
         List<UserRepresentation> users = this.keycloakAdminClient.findUsers(search);
         if (users != null) {
             users = users.stream().filter(UserRepresentation::isEnabled).collect(Collectors.toList());
@@ -160,6 +694,83 @@ public class NexusKeycloakClient {
     }
 
     public Set<Role> findRoles() {
+        Map<String, Role> roles = getRoleCatalog();
+        if (roles != null) {
+            return new LinkedHashSet<>(roles.values());
+        }
+        return loadRoles();
+    }
+
+    /** Get the role catalog from the mirrored directory or the refreshing snapshot, it's <code>null</code> if none */
+    private Map<String, Role> getRoleCatalog() {
+        KeycloakDirectory directory = getDirectory();
+
+        if (directory != null) {
+            return directory.getRoles();
+        }
+        return this.roleCatalog != null ? this.roleCatalog.get() : null;
+    }
+
+    /**
+     * Get the local mirrored directory,
+     * it's <code>null</code> if the mirror is disabled or the first synchronizing isn't finished yet.
+     */
+    public KeycloakDirectory getDirectory() {
+        return this.directorySynchronizer != null ? this.directorySynchronizer.getDirectory() : null;
+    }
+
+    /**
+     * Find the user in the mirror, it's <code>null</code> if the user isn't mirrored,
+     * e.g. the service account users (which aren't listed by Keycloak) or the users created after the last sync,
+     * and they should be got from Keycloak.
+     */
+    private UserRepresentation findUserInDirectory(KeycloakDirectory directory, String userNameOrEmail) {
+        if (KeycloakMapper.isServiceAccount(userNameOrEmail)) {
+            return null;
+        }
+        return this.keycloakAdminClient.isEmail(userNameOrEmail)
+               ? directory.getUserByEmail(userNameOrEmail)
+               : directory.getUserByUsername(userNameOrEmail);
+    }
+
+    /**
+     * Search the enabled users with the local search index,
+     * and only the users who have one of the roles of the criteria are matched if the roles are specified.
+     */
+    private List<UserRepresentation> searchUsersInDirectory(
+            KeycloakDirectory directory, String search, UserSearchCriteria criteria
+    ) {
+        Set<String> oneOfRoleIds = criteria.getOneOfRoleIds();
+        Integer limit = criteria.getLimit();
+
+        return directory.getSearchIndex().search(search, (user) -> {
+            if (!Boolean.TRUE.equals(user.isEnabled())) {
+                return false;
+            } else if (oneOfRoleIds == null || oneOfRoleIds.isEmpty()) {
+                return true;
+            }
+
+            Set<String> roleIds = directory.getRoleIds(user.getUsername());
+            return roleIds != null && roleIds.stream().anyMatch(oneOfRoleIds::contains);
+        }, limit != null && limit > 0 ? limit : getPluginConfig().getUserSearchLimit());
+    }
+
+    /** Reload the roles of the catalog immediately, so the new created roles can be found */
+    public void refreshRoleCatalog() {
+        if (this.roleCatalog != null) {
+            this.roleCatalog.refresh();
+        }
+    }
+
+    /** Load all the client roles, realm roles and groups, and index them by the role id */
+    private Map<String, Role> loadRoleCatalog() {
+        Map<String, Role> roles = new LinkedHashMap<>();
+
+        loadRoles().forEach((role) -> roles.put(role.getRoleId(), role));
+        return Collections.unmodifiableMap(roles);
+    }
+
+    private Set<Role> loadRoles() {
         String client = this.keycloakAdminClient.getConfig().getResource();
 
         List<RoleRepresentation> clientRoles = this.keycloakAdminClient.getRealmClientRoles(client);
@@ -169,6 +780,15 @@ public class NexusKeycloakClient {
         return KeycloakMapper.toRoles(getSource(), getSourceCode(), clientRoles, realmRoles, realmGroups);
     }
 
+    /** The executor to run the background tasks, e.g. refreshing the caches */
+    public Executor getBackgroundExecutor() {
+        return this.keycloakAdminClient != null ? this.keycloakAdminClient.getScheduler() : Runnable::run;
+    }
+
+    public KeycloakPluginConfig getPluginConfig() {
+        return this.keycloakAdminClient != null ? this.keycloakAdminClient.getPluginConfig() : new KeycloakPluginConfig();
+    }
+
     public String getSource() {
         return this.source;
     }
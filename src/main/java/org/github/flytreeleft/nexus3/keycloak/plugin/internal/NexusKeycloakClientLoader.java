@@ -1,6 +1,7 @@
 package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -22,6 +23,8 @@ public class NexusKeycloakClientLoader {
     private static final Logger LOGGER = LoggerFactory.getLogger(NexusKeycloakClientLoader.class);
 
     private static final Map<String, NexusKeycloakClient> clientMap = new HashMap<>();
+    /** The client -> the number of the components which loaded it */
+    private static final Map<NexusKeycloakClient, Integer> clientUsers = new HashMap<>();
 
     public static NexusKeycloakClient loadDefaultClient() {
         return loadClient("Keycloak", null, DEFAULT_CONFIG);
@@ -55,9 +58,27 @@ public class NexusKeycloakClientLoader {
                 LOGGER.debug(config.getAbsolutePath() + " file not found, will create no-op client");
             }
         }
+        if (client != null) {
+            clientUsers.merge(client, 1, Integer::sum);
+        }
         return client != null ? client : new NoopNexusKeycloakClient(source);
     }
 
+    /**
+     * Release the client loaded by {@link #loadClient(String, String, String)},
+     * the client is shut down when all of its users released it, and a new one will be created by the next loading.
+     */
+    public synchronized static void releaseClient(NexusKeycloakClient client) {
+        Integer users = clientUsers.computeIfPresent(client, (c, count) -> count > 1 ? count - 1 : null);
+        if (users != null || !clientMap.containsValue(client)) {
+            return;
+        }
+
+        LOGGER.debug("Shutting down the client of " + client.getSource() + "...");
+        clientMap.values().remove(client);
+        client.shutdown();
+    }
+
     static class NoopNexusKeycloakClient extends NexusKeycloakClient {
 
         public NoopNexusKeycloakClient(String source) {
@@ -74,6 +95,16 @@ public class NexusKeycloakClientLoader {
             return new HashSet<>();
         }
 
+        @Override
+        public Map<String, Set<String>> findRoleIdsOfAllUsers() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Map<String, Set<String>> findRoleIdsOfUsers(Collection<String> userIds) {
+            return new HashMap<>();
+        }
+
         @Override
         public User findUserByUserId(String userId) {
             return null;
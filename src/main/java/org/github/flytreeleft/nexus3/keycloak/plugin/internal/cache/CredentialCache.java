@@ -0,0 +1,105 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cache the credentials which have been verified by Keycloak,
+ * so that the same user doesn't need to do the password grant on every request.
+ * <p/>
+ * Only the salted PBKDF2 hash of the password is kept in memory,
+ * and the entry will be expired after <code>ttl</code> seconds since it was verified by Keycloak.
+ */
+public class CredentialCache {
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_ITERATIONS = 10000;
+    private static final int HASH_LENGTH = 256; // bits
+    private static final int SALT_LENGTH = 16; // bytes
+
+    private final SecureRandom random = new SecureRandom();
+    private final Cache<String, Credential> cache;
+
+    /**
+     * @param ttl
+     *         the seconds to keep a verified credential, the cache is disabled if it's not positive
+     * @param maxSize
+     *         the max number of the cached principals
+     */
+    public CredentialCache(long ttl, long maxSize) {
+        this.cache = ttl > 0 && maxSize > 0
+                     ? CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(maxSize).build()
+                     : null;
+    }
+
+    public boolean isEnabled() {
+        return this.cache != null;
+    }
+
+    /** Check if the credentials match the cached one of the principal */
+    public boolean verify(String principal, String credentials) {
+        if (!isEnabled() || principal == null || credentials == null) {
+            return false;
+        }
+
+        Credential credential = this.cache.getIfPresent(principal);
+        if (credential == null) {
+            return false;
+        }
+
+        byte[] hash = hash(credentials, credential.salt);
+        return MessageDigest.isEqual(hash, credential.hash);
+    }
+
+    /** Cache the credentials which have been verified by Keycloak */
+    public void put(String principal, String credentials) {
+        if (!isEnabled() || principal == null || credentials == null) {
+            return;
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        this.random.nextBytes(salt);
+
+        this.cache.put(principal, new Credential(salt, hash(credentials, salt)));
+    }
+
+    public void invalidate(String principal) {
+        if (isEnabled() && principal != null) {
+            this.cache.invalidate(principal);
+        }
+    }
+
+    public void invalidateAll() {
+        if (isEnabled()) {
+            this.cache.invalidateAll();
+        }
+    }
+
+    private byte[] hash(String credentials, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(credentials.toCharArray(), salt, HASH_ITERATIONS, HASH_LENGTH);
+
+        try {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not hash the credentials with " + HASH_ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static class Credential {
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Credential(byte[] salt, byte[] hash) {
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+}
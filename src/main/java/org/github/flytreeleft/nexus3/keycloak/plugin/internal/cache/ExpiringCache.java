@@ -0,0 +1,118 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A size bounded cache with LRU eviction, every entry of which has its own expiration time.
+ * <p/>
+ * The expiration time of the entry can not be greater than <code>ttl</code> seconds after it's put.
+ */
+public class ExpiringCache<K, V> {
+    private final long ttl; // milliseconds
+    private final Cache<K, Entry<V>> cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param ttl
+     *         the max seconds to keep an entry, the cache is disabled if it's not positive
+     * @param maxSize
+     *         the max number of the cached entries
+     */
+    public ExpiringCache(long ttl, long maxSize) {
+        this.ttl = TimeUnit.SECONDS.toMillis(ttl);
+        this.cache = ttl > 0 && maxSize > 0
+                     ? CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(maxSize).build()
+                     : null;
+    }
+
+    public boolean isEnabled() {
+        return this.cache != null;
+    }
+
+    public V get(K key) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Entry<V> entry = this.cache.getIfPresent(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            this.cache.invalidate(key);
+            entry = null;
+        }
+
+        if (entry != null) {
+            this.hitCount.incrementAndGet();
+            return entry.value;
+        } else {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(K key, V value) {
+        put(key, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param expiresAt
+     *         the time (in milliseconds) when the entry should be expired,
+     *         it will be capped by the <code>ttl</code> of the cache
+     */
+    public void put(K key, V value, long expiresAt) {
+        if (!isEnabled() || value == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long expiration = Math.min(expiresAt, now + this.ttl);
+
+        if (expiration > now) {
+            this.cache.put(key, new Entry<>(value, expiration));
+        }
+    }
+
+    public void invalidate(K key) {
+        if (isEnabled()) {
+            this.cache.invalidate(key);
+        }
+    }
+
+    public void invalidateAll() {
+        if (isEnabled()) {
+            this.cache.invalidateAll();
+        }
+    }
+
+    public long size() {
+        return isEnabled() ? this.cache.size() : 0;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{size: %d, hits: %d, misses: %d}", size(), getHitCount(), getMissCount());
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
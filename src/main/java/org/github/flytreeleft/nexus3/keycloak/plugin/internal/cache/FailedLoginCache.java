@@ -0,0 +1,115 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remember the recently failed logins, so the repeated failures can be rejected without reaching Keycloak:
+ * <ul>
+ * <li>The same failed credentials of a principal will be rejected until the entry is expired;</li>
+ * <li>After <code>n</code> continuous failures, the credentials of the principal,
+ * which don't match the cached verified one, will be rejected
+ * in the next <code>min(initialBackoff * 2^(n-1), maxBackoff)</code> seconds;</li>
+ * </ul>
+ * Only the keyed hash of the credentials should be passed in.
+ */
+public class FailedLoginCache {
+    private final long initialBackoff; // milliseconds
+    private final long maxBackoff; // milliseconds
+
+    private final Cache<List<String>, Boolean> failedCredentials;
+    private final Cache<String, Backoff> backoffs;
+
+    /**
+     * @param ttl
+     *         the seconds to remember a failed login, the cache is disabled if it's not positive
+     * @param maxSize
+     *         the max number of the remembered failed logins
+     * @param initialBackoff
+     *         the seconds to reject the principal after the first failure
+     * @param maxBackoff
+     *         the max seconds to reject the principal after the continuous failures
+     */
+    public FailedLoginCache(long ttl, long maxSize, long initialBackoff, long maxBackoff) {
+        this.initialBackoff = TimeUnit.SECONDS.toMillis(Math.max(initialBackoff, 0));
+        this.maxBackoff = TimeUnit.SECONDS.toMillis(Math.max(maxBackoff, 0));
+
+        if (ttl > 0 && maxSize > 0) {
+            this.failedCredentials = CacheBuilder.newBuilder()
+                                                 .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                                                 .maximumSize(maxSize)
+                                                 .build();
+            this.backoffs = CacheBuilder.newBuilder()
+                                        .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                                        .maximumSize(maxSize)
+                                        .build();
+        } else {
+            this.failedCredentials = null;
+            this.backoffs = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.failedCredentials != null;
+    }
+
+    /** Check if the same credentials of the principal were failed recently */
+    public boolean isFailedCredentials(String principal, String credentialsHash) {
+        return isEnabled() && this.failedCredentials.getIfPresent(Arrays.asList(principal, credentialsHash)) != null;
+    }
+
+    /**
+     * Check if the principal is in the backoff of the continuous failures,
+     * the caller should only reject the credentials which can't be verified locally
+     */
+    public boolean isBackedOff(String principal) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        Backoff backoff = this.backoffs.getIfPresent(principal);
+        return backoff != null && backoff.rejectedUntil > System.currentTimeMillis();
+    }
+
+    public void recordFailure(String principal, String credentialsHash) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        this.failedCredentials.put(Arrays.asList(principal, credentialsHash), Boolean.TRUE);
+        this.backoffs.asMap().compute(principal, (key, backoff) -> {
+            int failures = backoff != null ? backoff.failures + 1 : 1;
+            // Avoid overflow: 2^30 is large enough for any reasonable initial backoff
+            long delay = Math.min(this.initialBackoff << Math.min(failures - 1, 30), this.maxBackoff);
+
+            return new Backoff(failures, System.currentTimeMillis() + delay);
+        });
+    }
+
+    public void recordSuccess(String principal) {
+        if (isEnabled()) {
+            this.backoffs.invalidate(principal);
+        }
+    }
+
+    public void invalidateAll() {
+        if (isEnabled()) {
+            this.failedCredentials.invalidateAll();
+            this.backoffs.invalidateAll();
+        }
+    }
+
+    private static class Backoff {
+        private final int failures;
+        private final long rejectedUntil;
+
+        private Backoff(int failures, long rejectedUntil) {
+            this.failures = failures;
+            this.rejectedUntil = rejectedUntil;
+        }
+    }
+}
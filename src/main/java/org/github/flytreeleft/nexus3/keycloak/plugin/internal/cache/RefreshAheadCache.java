@@ -0,0 +1,241 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A loading cache with the stale-while-revalidate semantics:
+ * <ul>
+ * <li>The entry is fresh in <code>softTtl</code> seconds since it's (re)loaded, and is returned directly;</li>
+ * <li>When a hot entry, which has been accessed at least <code>minHits</code> times since it's (re)loaded,
+ * is accessed after <code>softTtl</code> seconds, the stale one is returned immediately
+ * and it's reloaded in the background;</li>
+ * <li>The cold entry is reloaded in the caller thread after <code>softTtl</code> seconds,
+ * so only the hot entries are refreshed proactively;</li>
+ * <li>The entry is evicted after <code>hardTtl</code> seconds since it's (re)loaded, so the entry which is
+ * not accessed anymore or can not be reloaded (e.g. Keycloak is unreachable) will not be kept forever;</li>
+ * </ul>
+ * The concurrent loadings of the same key are coalesced, and the <code>null</code> value is not cached.
+ * The value which is loaded while any entry is invalidated will not be cached,
+ * because it may have been loaded before the change which causes the invalidation.
+ */
+public class RefreshAheadCache<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(RefreshAheadCache.class);
+
+    private final long softTtl; // milliseconds
+    private final int minHits;
+    private final Function<K, V> loader;
+    private final Executor executor;
+    private final Cache<K, Entry<V>> cache;
+    private final SingleFlight<K, V> loadings = new SingleFlight<>();
+    /** It's increased on every invalidation */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    /**
+     * @param softTtl
+     *         the seconds after which the entry should be reloaded,
+     *         it's the same as <code>hardTtl</code> if it's not positive or not less than <code>hardTtl</code>
+     * @param hardTtl
+     *         the max seconds to keep an entry, the cache is disabled if it's not positive
+     * @param maxSize
+     *         the max number of the cached entries
+     * @param minHits
+     *         the min number of the accesses to make the entry be refreshed in the background
+     * @param loader
+     *         load the value of the key, the <code>null</code> value will not be cached
+     * @param executor
+     *         the executor to reload the hot entries
+     * @param removalListener
+     *         listen the entry which is evicted or invalidated (but not replaced), it can be <code>null</code>
+     */
+    public RefreshAheadCache(
+            long softTtl,
+            long hardTtl,
+            long maxSize,
+            int minHits,
+            Function<K, V> loader,
+            Executor executor,
+            BiConsumer<K, V> removalListener
+    ) {
+        this.softTtl = TimeUnit.SECONDS.toMillis(softTtl > 0 && softTtl < hardTtl ? softTtl : hardTtl);
+        this.minHits = Math.max(minHits, 1);
+        this.loader = loader;
+        this.executor = executor;
+
+        if (hardTtl > 0 && maxSize > 0) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                                                               .expireAfterWrite(hardTtl, TimeUnit.SECONDS)
+                                                               .maximumSize(maxSize);
+            if (removalListener != null) {
+                this.cache = builder.<K, Entry<V>>removalListener((notification) -> {
+                    if (notification.getCause() != RemovalCause.REPLACED && notification.getValue() != null) {
+                        removalListener.accept(notification.getKey(), notification.getValue().value);
+                    }
+                }).build();
+            } else {
+                this.cache = builder.build();
+            }
+        } else {
+            this.cache = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.cache != null;
+    }
+
+    public V get(K key) {
+        if (!isEnabled()) {
+            return this.loader.apply(key);
+        }
+
+        Entry<V> entry = this.cache.getIfPresent(key);
+        if (entry != null) {
+            int hits = entry.hits.incrementAndGet();
+
+            if (entry.loadedAt + this.softTtl > System.currentTimeMillis()) {
+                this.hitCount.incrementAndGet();
+                return entry.value;
+            } else if (hits > this.minHits) {
+                this.hitCount.incrementAndGet();
+                refresh(key, entry);
+                return entry.value;
+            }
+        }
+
+        this.missCount.incrementAndGet();
+        return this.loadings.execute(key, () -> {
+            long generation = this.generation.get();
+            V value = this.loader.apply(key);
+
+            // Do not cache the value if the entry has been invalidated during loading
+            if (value != null && generation == this.generation.get()) {
+                Entry<V> loaded = new Entry<>(value);
+
+                this.cache.put(key, loaded);
+                // The invalidation may happen between the checking and the putting
+                if (generation != this.generation.get()) {
+                    this.cache.asMap().remove(key, loaded);
+                }
+            }
+            return value;
+        });
+    }
+
+    /** Get the cached value without loading, it's <code>null</code> if it isn't cached */
+    public V getIfPresent(K key) {
+        Entry<V> entry = isEnabled() ? this.cache.getIfPresent(key) : null;
+
+        return entry != null ? entry.value : null;
+    }
+
+    public void put(K key, V value) {
+        if (isEnabled() && value != null) {
+            this.cache.put(key, new Entry<>(value));
+        }
+    }
+
+    public Collection<V> values() {
+        if (!isEnabled()) {
+            return Collections.emptyList();
+        }
+        return this.cache.asMap().values().stream().map((entry) -> entry.value).collect(Collectors.toList());
+    }
+
+    public void invalidate(K key) {
+        if (isEnabled()) {
+            this.generation.incrementAndGet();
+            this.cache.invalidate(key);
+        }
+    }
+
+    public void invalidateAll() {
+        if (isEnabled()) {
+            this.generation.incrementAndGet();
+            this.cache.invalidateAll();
+        }
+    }
+
+    public long size() {
+        return isEnabled() ? this.cache.size() : 0;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getRefreshCount() {
+        return this.refreshCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{size: %d, hits: %d, misses: %d, refreshes: %d}",
+                             size(),
+                             getHitCount(),
+                             getMissCount(),
+                             getRefreshCount());
+    }
+
+    private void refresh(K key, Entry<V> entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    V value = this.loader.apply(key);
+
+                    // Do not put back the entry which has been invalidated during reloading
+                    if (value != null) {
+                        this.cache.asMap().replace(key, entry, new Entry<>(value));
+                    } else {
+                        this.cache.asMap().remove(key, entry);
+                    }
+                    this.refreshCount.incrementAndGet();
+                } catch (RuntimeException e) {
+                    // Keep the stale one until it's expired, and retry on the next access
+                    entry.refreshing.set(false);
+                    logger.debug("Failed to refresh the entry {}: {}", key, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long loadedAt = System.currentTimeMillis();
+        private final AtomicInteger hits = new AtomicInteger();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(V value) {
+            this.value = value;
+        }
+    }
+}
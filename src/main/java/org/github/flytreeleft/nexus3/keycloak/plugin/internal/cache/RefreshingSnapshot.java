@@ -0,0 +1,86 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keep a snapshot which is loaded on the first access, and then refreshed in the background periodically.
+ * <p/>
+ * The readers always get the latest loaded snapshot without waiting for the refreshing,
+ * and the old snapshot is kept if the refreshing is failed.
+ */
+public class RefreshingSnapshot<T> {
+    private static final Logger logger = LoggerFactory.getLogger(RefreshingSnapshot.class);
+
+    private final String name;
+    private final Supplier<T> loader;
+    private final long interval; // seconds
+    private final ScheduledExecutorService scheduler;
+
+    private volatile T snapshot;
+    private ScheduledFuture<?> refreshing;
+
+    /**
+     * @param name
+     *         the name of the snapshot, just for logging
+     * @param loader
+     *         load the latest snapshot
+     * @param interval
+     *         the seconds between two refreshing
+     * @param scheduler
+     *         the scheduler to run the refreshing
+     */
+    public RefreshingSnapshot(String name, Supplier<T> loader, long interval, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.loader = loader;
+        this.interval = interval;
+        this.scheduler = scheduler;
+    }
+
+    public T get() {
+        T snapshot = this.snapshot;
+
+        if (snapshot == null) {
+            synchronized (this) {
+                if (this.snapshot == null) {
+                    this.snapshot = this.loader.get();
+                    logger.info("The snapshot {} is loaded", this.name);
+
+                    if (this.refreshing == null) {
+                        this.refreshing = this.scheduler.scheduleWithFixedDelay(this::refresh,
+                                                                                this.interval,
+                                                                                this.interval,
+                                                                                TimeUnit.SECONDS);
+                    }
+                }
+                snapshot = this.snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    public void refresh() {
+        try {
+            T snapshot = this.loader.get();
+
+            if (snapshot != null) {
+                this.snapshot = snapshot;
+                logger.debug("The snapshot {} is refreshed", this.name);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to refresh the snapshot {}, keep the old one: {}", this.name, e.getMessage());
+        }
+    }
+
+    public synchronized void stop() {
+        if (this.refreshing != null) {
+            this.refreshing.cancel(false);
+            this.refreshing = null;
+        }
+    }
+}
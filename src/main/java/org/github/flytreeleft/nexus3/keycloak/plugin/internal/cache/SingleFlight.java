@@ -0,0 +1,69 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.Deadline;
+
+/**
+ * Coalesce the concurrent calls for the same key:
+ * only the first caller does the real call, and the others wait for and share its result (or its exception).
+ * <p/>
+ * The result isn't kept after the call is finished, so the subsequent callers will do a new call.
+ * The waiting caller gives up (but the in-flight call goes on) once its {@link Deadline} is exceeded.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> supplier) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> inFlightCall = this.calls.putIfAbsent(key, call);
+
+        if (inFlightCall != null) {
+            return await(inFlightCall);
+        }
+
+        try {
+            V value = supplier.get();
+
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.calls.remove(key, call);
+        }
+    }
+
+    /** Wait for the in-flight call, but not longer than the {@link Deadline} of the current operation */
+    private V await(CompletableFuture<V> call) {
+        Deadline deadline = Deadline.current();
+
+        try {
+            if (deadline == null) {
+                return call.get();
+            }
+            return call.get(deadline.remaining(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw deadline.exceeded("waiting for the in-flight call");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the in-flight call", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.keycloak.representations.idm.UserRepresentation;
+
+/**
+ * Cache the users by the username, and index them by the email.
+ * <p/>
+ * The hot user will be reloaded in the background when it's accessed after <code>refreshAfter</code> seconds,
+ * and the stale one is still returned until the reloading is finished (see {@link RefreshAheadCache}).
+ * The entry will be expired after <code>ttl</code> seconds since it's (re)loaded.
+ * <p/>
+ * Note: The user which is found via the email index must have the exactly same email,
+ * otherwise, it will be loaded again by the email.
+ */
+public class UserCache {
+    private final Function<String, UserRepresentation> loader;
+    private final RefreshAheadCache<String, UserRepresentation> users;
+    private final ConcurrentMap<String, String> usernamesByEmail = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl
+     *         the max seconds to keep a user, the cache is disabled if it's not positive
+     * @param refreshAfter
+     *         the seconds after which the user will be reloaded
+     * @param maxSize
+     *         the max number of the cached users
+     * @param minHits
+     *         the min number of the accesses to make the user be reloaded in the background
+     * @param loader
+     *         load the user by the username or the email
+     * @param executor
+     *         the executor to reload the users
+     */
+    public UserCache(
+            long ttl,
+            long refreshAfter,
+            long maxSize,
+            int minHits,
+            Function<String, UserRepresentation> loader,
+            Executor executor
+    ) {
+        this.loader = loader;
+        // The missing user isn't cached, since it may be created soon
+        this.users = new RefreshAheadCache<>(refreshAfter, ttl, maxSize, minHits, this::load, executor, this::unindex);
+    }
+
+    public boolean isEnabled() {
+        return this.users.isEnabled();
+    }
+
+    public UserRepresentation getByUsername(String username) {
+        return this.users.get(username);
+    }
+
+    public UserRepresentation getByEmail(String email) {
+        if (!isEnabled()) {
+            return this.loader.apply(email);
+        }
+
+        String username = this.usernamesByEmail.get(email);
+        if (username != null) {
+            UserRepresentation user = getByUsername(username);
+
+            // Note: We need to avoid someone try to register email as username to fake others.
+            if (user != null && email.equals(user.getEmail())) {
+                return user;
+            }
+        }
+
+        UserRepresentation user = this.loader.apply(email);
+        if (user != null) {
+            index(user.getUsername(), user);
+            this.users.put(user.getUsername(), user);
+        }
+        return user;
+    }
+
+    /** Find the cached user by its id, the user which isn't cached will not be loaded */
+    public UserRepresentation findById(String id) {
+        for (UserRepresentation user : this.users.values()) {
+            if (id.equals(user.getId())) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    public void invalidate(String usernameOrEmail) {
+        if (isEnabled()) {
+            String username = this.usernamesByEmail.get(usernameOrEmail);
+
+            this.users.invalidate(username != null ? username : usernameOrEmail);
+        }
+    }
+
+    public void invalidateAll() {
+        if (isEnabled()) {
+            this.users.invalidateAll();
+            this.usernamesByEmail.clear();
+        }
+    }
+
+    public long size() {
+        return this.users.size();
+    }
+
+    @Override
+    public String toString() {
+        return this.users.toString();
+    }
+
+    private UserRepresentation load(String username) {
+        UserRepresentation user = this.loader.apply(username);
+
+        if (user != null) {
+            index(username, user);
+        }
+        return user;
+    }
+
+    private void index(String username, UserRepresentation user) {
+        if (user.getEmail() != null) {
+            this.usernamesByEmail.put(user.getEmail(), username);
+        }
+    }
+
+    private void unindex(String username, UserRepresentation user) {
+        if (user.getEmail() != null) {
+            this.usernamesByEmail.remove(user.getEmail(), username);
+        }
+    }
+}
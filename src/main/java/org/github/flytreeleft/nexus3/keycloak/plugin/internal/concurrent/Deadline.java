@@ -0,0 +1,161 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The time budget of an operation (e.g. authenticating a user), which is shared by all the chained calls of it:
+ * <ul>
+ * <li>The deadline is bound to the current thread until it's closed, and it's propagated to the lookups
+ * which are run in the other threads via {@link #propagate(Callable)};</li>
+ * <li>The nested deadline never extends the outer one;</li>
+ * <li>The timeouts of every HTTP request are limited to the remaining budget via {@link #limit(RequestConfig)},
+ * and no more request will be sent once the budget is exhausted;</li>
+ * </ul>
+ * <pre>
+ * try (Deadline deadline = Deadline.start("authentication of admin", 30)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class Deadline implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Deadline.class);
+
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+    private final String operation;
+    private final long budget; // milliseconds
+    private final long expiresAt; // nanoseconds
+    private final Deadline previous;
+
+    private Deadline(String operation, long budget, long expiresAt, Deadline previous) {
+        this.operation = operation;
+        this.budget = budget;
+        this.expiresAt = expiresAt;
+        this.previous = previous;
+    }
+
+    /**
+     * Start the deadline of the operation in the current thread
+     *
+     * @param operation
+     *         the description of the operation, it's used to log the exhaustion
+     * @param budget
+     *         the max seconds of the operation, only the outer deadline (if any) is kept if it's not positive
+     */
+    public static Deadline start(String operation, long budget) {
+        Deadline outer = current.get();
+        Deadline deadline;
+
+        if (budget <= 0) {
+            deadline = outer != null
+                       ? new Deadline(outer.operation, outer.budget, outer.expiresAt, outer)
+                       : new Deadline(operation, 0, Long.MAX_VALUE, null);
+        } else {
+            long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(budget);
+
+            deadline = outer != null && outer.expiresAt - expiresAt <= 0
+                       ? new Deadline(outer.operation, outer.budget, outer.expiresAt, outer)
+                       : new Deadline(operation, TimeUnit.SECONDS.toMillis(budget), expiresAt, outer);
+        }
+
+        current.set(deadline);
+        return deadline;
+    }
+
+    /** The deadline of the current thread, it's <code>null</code> if there is no one */
+    public static Deadline current() {
+        Deadline deadline = current.get();
+
+        return deadline != null && deadline.isUnlimited() ? null : deadline;
+    }
+
+    /** Bind the deadline of the current thread (if any) to the thread which runs the task */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        Deadline deadline = current();
+        if (deadline == null) {
+            return task;
+        }
+
+        return () -> {
+            Deadline previous = current.get();
+
+            current.set(deadline);
+            try {
+                return task.call();
+            } finally {
+                if (previous != null) {
+                    current.set(previous);
+                } else {
+                    current.remove();
+                }
+            }
+        };
+    }
+
+    public boolean isUnlimited() {
+        return this.expiresAt == Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return !isUnlimited() && this.expiresAt - System.nanoTime() <= 0;
+    }
+
+    /** The remaining nanoseconds, it's {@link Long#MAX_VALUE} if there is no limit */
+    public long remaining() {
+        return isUnlimited() ? Long.MAX_VALUE : Math.max(this.expiresAt - System.nanoTime(), 0);
+    }
+
+    /** Fail fast if the budget is exhausted before doing the action */
+    public void check(String action) {
+        if (isExpired()) {
+            throw exceeded(action);
+        }
+    }
+
+    /** Log and create the exception for the action which can not be finished in the budget */
+    public DeadlineExceededException exceeded(String action) {
+        String message = String.format("The deadline (%d ms) of the %s is exceeded at %s",
+                                       this.budget,
+                                       this.operation,
+                                       action);
+        logger.warn(message);
+
+        return new DeadlineExceededException(message);
+    }
+
+    /** Limit the connect, socket and connection request timeouts to the remaining budget */
+    public RequestConfig limit(RequestConfig config) {
+        RequestConfig base = config != null ? config : RequestConfig.DEFAULT;
+        if (isUnlimited()) {
+            return base;
+        }
+
+        int remaining = (int) Math.max(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining()), Integer.MAX_VALUE), 1);
+
+        return RequestConfig.copy(base)
+                            .setConnectTimeout(limit(base.getConnectTimeout(), remaining))
+                            .setSocketTimeout(limit(base.getSocketTimeout(), remaining))
+                            .setConnectionRequestTimeout(limit(base.getConnectionRequestTimeout(), remaining))
+                            .build();
+    }
+
+    /** Restore the outer deadline of the current thread */
+    @Override
+    public void close() {
+        if (this.previous != null) {
+            current.set(this.previous);
+        } else {
+            current.remove();
+        }
+    }
+
+    private static int limit(int timeout, int remaining) {
+        // The timeout isn't positive means no timeout
+        return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+}
@@ -0,0 +1,8 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent;
+
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,121 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Run the independent lookups concurrently on a bounded pool of daemon threads.
+ * <p/>
+ * When the pool and its queue are full, the lookup is run in the caller thread,
+ * and if the pool size isn't positive, all the lookups are run in the caller thread one by one.
+ */
+public class LookupExecutor {
+    /** The max number of the waiting lookups per thread */
+    private static final int QUEUE_SIZE = 16;
+
+    private final long timeout; // nanoseconds
+    private final ExecutorService executor;
+
+    /**
+     * @param name
+     *         the name prefix of the threads
+     * @param threads
+     *         the max number of the threads
+     * @param timeout
+     *         the max seconds to wait for the lookups which are submitted together, no timeout if it's not positive
+     */
+    public LookupExecutor(String name, int threads, long timeout) {
+        this.timeout = timeout > 0 ? TimeUnit.SECONDS.toNanos(timeout) : 0;
+
+        if (threads > 0) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                                                                 threads,
+                                                                 60,
+                                                                 TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue<>(threads * QUEUE_SIZE),
+                                                                 new ThreadFactoryBuilder().setNameFormat(name + "-%d")
+                                                                                           .setDaemon(true)
+                                                                                           .build(),
+                                                                 new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+
+            this.executor = executor;
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * The deadline (in the time of {@link System#nanoTime()}) of the lookups which are submitted from now,
+     * it's {@link Long#MAX_VALUE} if there is no timeout.
+     * It never exceeds the {@link Deadline} of the current operation.
+     */
+    public long newDeadline() {
+        Deadline operation = Deadline.current();
+        long remaining = operation != null ? operation.remaining() : Long.MAX_VALUE;
+
+        if (this.timeout > 0 && this.timeout < remaining) {
+            return System.nanoTime() + this.timeout;
+        }
+        return remaining != Long.MAX_VALUE ? System.nanoTime() + remaining : Long.MAX_VALUE;
+    }
+
+    /** The {@link Deadline} of the current operation is also bound to the thread which runs the lookup */
+    public <T> Future<T> submit(Callable<T> lookup) {
+        if (this.executor != null) {
+            return this.executor.submit(Deadline.propagate(lookup));
+        }
+
+        FutureTask<T> task = new FutureTask<>(lookup);
+        task.run();
+
+        return task;
+    }
+
+    /** Wait for the result of the lookup until the deadline, the lookup will be cancelled if it's timeout */
+    public <T> T get(Future<T> lookup, long deadline) {
+        try {
+            if (deadline == Long.MAX_VALUE) {
+                return lookup.get();
+            }
+            return lookup.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            lookup.cancel(true);
+
+            Deadline operation = Deadline.current();
+            if (operation != null && operation.isExpired()) {
+                throw operation.exceeded("waiting for the lookup");
+            }
+            throw new IllegalStateException(String.format("The lookup isn't finished in %d seconds",
+                                                          TimeUnit.NANOSECONDS.toSeconds(this.timeout)));
+        } catch (InterruptedException e) {
+            lookup.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the lookup", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    public void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+}
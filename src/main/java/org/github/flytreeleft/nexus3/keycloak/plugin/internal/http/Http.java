@@ -3,17 +3,32 @@ package org.github.flytreeleft.nexus3.keycloak.plugin.internal.http;
 import java.net.URI;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.RequestBuilder;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.Deadline;
 import org.keycloak.representations.adapters.config.AdapterConfig;
 
 public class Http {
     private final AdapterConfig config;
     private final HttpClient httpClient;
+    private final RequestConfig requestConfig;
     private final ClientAuthenticator authenticator;
 
     public Http(AdapterConfig config, HttpClient httpClient, ClientAuthenticator authenticator) {
+        this(config, httpClient, null, authenticator);
+    }
+
+    /**
+     * @param requestConfig
+     *         the default request config of the <code>httpClient</code>,
+     *         which is the base of the request timeouts limited by the {@link Deadline}
+     */
+    public Http(
+            AdapterConfig config, HttpClient httpClient, RequestConfig requestConfig, ClientAuthenticator authenticator
+    ) {
         this.config = config;
         this.httpClient = httpClient;
+        this.requestConfig = requestConfig;
         this.authenticator = authenticator;
     }
 
@@ -60,6 +75,6 @@ public class Http {
     }
 
     private <R> HttpMethod<R> method(RequestBuilder builder) {
-        return new HttpMethod<>(this.httpClient, this.authenticator, builder);
+        return new HttpMethod<>(this.httpClient, this.requestConfig, this.authenticator, builder, null);
     }
 }
@@ -0,0 +1,234 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.http;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.DefaultHostnameVerifier;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustAllStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.ssl.SSLContexts;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakPluginConfig;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The shared connection pools of the Keycloak servers:
+ * <ul>
+ * <li>Only one pool is created for the same auth server (with the same SSL options),
+ * so all the realms on it share the pool, and the pool options of the first created one are used
+ * (a warning is logged if the later ones are different);</li>
+ * <li>The pool is counted by its users, and it's shut down when the last user releases it,
+ * then its eviction and gauges are removed too;</li>
+ * <li>The expired and idle connections of all pools are closed in the background;</li>
+ * <li>The leased, pending, available and max connections of the pools are registered as the gauges
+ * of the Nexus metrics, e.g. <code>keycloak.http.pool.localhost:8080.leased</code>;</li>
+ * </ul>
+ */
+public class HttpConnectionPools {
+    private static final Logger logger = LoggerFactory.getLogger(HttpConnectionPools.class);
+
+    private static final String METRIC_REGISTRY_NAME = "nexus";
+    private static final String METRIC_PREFIX = "keycloak.http.pool";
+    /** The seconds between two evictions */
+    private static final long EVICTION_INTERVAL = 5;
+    private static final String[] GAUGES = new String[] { "leased", "pending", "available", "max" };
+
+    private static final Map<String, SharedPool> pools = new HashMap<>();
+    private static ScheduledExecutorService evictor;
+
+    /**
+     * Get the shared pool of the auth server, the pool will be created at the first time.
+     * Every acquiring should be paired with a {@link #release(PoolingHttpClientConnectionManager)}.
+     */
+    public static synchronized PoolingHttpClientConnectionManager acquire(
+            AdapterConfig config, KeycloakPluginConfig pluginConfig
+    ) {
+        String key = String.format("%s|%s|%s",
+                                   config.getAuthServerUrl(),
+                                   config.isDisableTrustManager(),
+                                   config.isAllowAnyHostname());
+        String options = getPoolOptions(pluginConfig);
+        SharedPool shared = pools.get(key);
+
+        if (shared == null) {
+            shared = new SharedPool(key, getPoolName(config.getAuthServerUrl()), options);
+            shared.pool = createPool(config, pluginConfig);
+
+            registerGauges(shared.name, shared.pool);
+            shared.eviction = scheduleEviction(shared.pool, pluginConfig.getHttpIdleTimeout());
+            logger.info("Created the connection pool {} with max {} connections ({} per route)",
+                        shared.name,
+                        shared.pool.getMaxTotal(),
+                        shared.pool.getDefaultMaxPerRoute());
+
+            pools.put(key, shared);
+        } else if (!shared.options.equals(options)) {
+            logger.warn("The connection pool {} is shared with the options ({}) of the first realm, "
+                        + "the different options ({}) are ignored", shared.name, shared.options, options);
+        }
+
+        shared.references += 1;
+        return shared.pool;
+    }
+
+    /** Release the shared pool, and the pool will be shut down if it isn't used by anyone */
+    public static synchronized void release(PoolingHttpClientConnectionManager pool) {
+        SharedPool shared = pools.values().stream().filter((p) -> p.pool == pool).findFirst().orElse(null);
+        if (shared == null) {
+            return;
+        }
+
+        shared.references -= 1;
+        if (shared.references > 0) {
+            return;
+        }
+
+        pools.remove(shared.key);
+        shared.eviction.cancel(false);
+        unregisterGauges(shared.name);
+        shared.pool.shutdown();
+        logger.info("Shut down the connection pool {}", shared.name);
+
+        if (pools.isEmpty() && evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+    }
+
+    private static PoolingHttpClientConnectionManager createPool(
+            AdapterConfig config, KeycloakPluginConfig pluginConfig
+    ) {
+        SSLContext sslContext;
+        try {
+            sslContext = config.isDisableTrustManager()
+                         ? new SSLContextBuilder().loadTrustMaterial(null, TrustAllStrategy.INSTANCE).build()
+                         : SSLContexts.createDefault();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        HostnameVerifier hostnameVerifier = config.isAllowAnyHostname()
+                                            ? NoopHostnameVerifier.INSTANCE
+                                            : new DefaultHostnameVerifier();
+
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext, hostnameVerifier))
+                .build();
+
+        long ttl = pluginConfig.getHttpConnectionTtl();
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(registry,
+                                                                                         null,
+                                                                                         null,
+                                                                                         null,
+                                                                                         ttl > 0 ? ttl : -1,
+                                                                                         TimeUnit.SECONDS);
+        pool.setMaxTotal(Math.max(pluginConfig.getHttpPoolMaxTotal(), 1));
+        pool.setDefaultMaxPerRoute(Math.max(pluginConfig.getHttpPoolMaxPerRoute(), 1));
+
+        return pool;
+    }
+
+    private static ScheduledFuture<?> scheduleEviction(PoolingHttpClientConnectionManager pool, long idleTimeout) {
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat(
+                    "keycloak-http-evictor-%d").setDaemon(true).build());
+        }
+
+        return evictor.scheduleWithFixedDelay(() -> {
+            try {
+                pool.closeExpiredConnections();
+                if (idleTimeout > 0) {
+                    pool.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to evict the connections: {}", e.getMessage());
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private static void registerGauges(String name, PoolingHttpClientConnectionManager pool) {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(METRIC_REGISTRY_NAME);
+
+        registerGauge(registry, MetricRegistry.name(METRIC_PREFIX, name, "leased"), () -> stats(pool).getLeased());
+        registerGauge(registry, MetricRegistry.name(METRIC_PREFIX, name, "pending"), () -> stats(pool).getPending());
+        registerGauge(registry,
+                      MetricRegistry.name(METRIC_PREFIX, name, "available"),
+                      () -> stats(pool).getAvailable());
+        registerGauge(registry, MetricRegistry.name(METRIC_PREFIX, name, "max"), () -> stats(pool).getMax());
+    }
+
+    private static void unregisterGauges(String name) {
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(METRIC_REGISTRY_NAME);
+
+        for (String gauge : GAUGES) {
+            registry.remove(MetricRegistry.name(METRIC_PREFIX, name, gauge));
+        }
+    }
+
+    private static void registerGauge(MetricRegistry registry, String name, Gauge<Integer> gauge) {
+        // Replace the gauge of the pool which was created by the previous loading of the plugin
+        registry.remove(name);
+        try {
+            registry.register(name, gauge);
+        } catch (IllegalArgumentException e) {
+            logger.debug("The gauge {} has been registered", name);
+        }
+    }
+
+    private static PoolStats stats(PoolingHttpClientConnectionManager pool) {
+        return pool.getTotalStats();
+    }
+
+    private static String getPoolOptions(KeycloakPluginConfig pluginConfig) {
+        return String.format("max-total=%d, max-per-route=%d, connection-ttl=%d, idle-timeout=%d",
+                             pluginConfig.getHttpPoolMaxTotal(),
+                             pluginConfig.getHttpPoolMaxPerRoute(),
+                             pluginConfig.getHttpConnectionTtl(),
+                             pluginConfig.getHttpIdleTimeout());
+    }
+
+    private static String getPoolName(String authServerUrl) {
+        try {
+            URI uri = URI.create(authServerUrl);
+
+            return uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+        } catch (RuntimeException e) {
+            return String.valueOf(authServerUrl);
+        }
+    }
+
+    private static class SharedPool {
+        private final String key;
+        private final String name;
+        private final String options;
+        private PoolingHttpClientConnectionManager pool;
+        private ScheduledFuture<?> eviction;
+        private int references;
+
+        private SharedPool(String key, String name, String options) {
+            this.key = key;
+            this.name = name;
+            this.options = options;
+        }
+    }
+}
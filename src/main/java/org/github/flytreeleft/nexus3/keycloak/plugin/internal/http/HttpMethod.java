@@ -14,11 +14,14 @@ import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.message.BasicNameValuePair;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.Deadline;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent.DeadlineExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,6 +29,7 @@ public class HttpMethod<R> {
     private static final Logger logger = LoggerFactory.getLogger(HttpMethod.class);
 
     private final HttpClient httpClient;
+    private final RequestConfig requestConfig;
     private final ClientAuthenticator authenticator;
     private final RequestBuilder builder;
     private final HashMap<String, String> params;
@@ -37,8 +41,16 @@ public class HttpMethod<R> {
     public HttpMethod(
             HttpClient httpClient, ClientAuthenticator authenticator, RequestBuilder builder,
             HashMap<String, String> params
+    ) {
+        this(httpClient, null, authenticator, builder, params);
+    }
+
+    public HttpMethod(
+            HttpClient httpClient, RequestConfig requestConfig, ClientAuthenticator authenticator,
+            RequestBuilder builder, HashMap<String, String> params
     ) {
         this.httpClient = httpClient;
+        this.requestConfig = requestConfig;
         this.authenticator = authenticator;
         this.builder = builder;
         this.params = params != null ? new HashMap<>(params) : new HashMap<>();
@@ -51,9 +63,15 @@ public class HttpMethod<R> {
     public R execute(HttpResponseProcessor<R> responseProcessor) {
         HttpUriRequest request = null;
         InputStream inputStream = null;
+        Deadline deadline = Deadline.current();
 
         try {
             preExecute(this.builder);
+            if (deadline != null) {
+                // Fail fast without sending the request, and never wait longer than the remaining budget
+                deadline.check(String.valueOf(this.builder.getUri()));
+                this.builder.setConfig(deadline.limit(this.requestConfig));
+            }
             request = this.builder.build();
 
             HttpResponse response = this.httpClient.execute(request);
@@ -83,9 +101,12 @@ public class HttpMethod<R> {
             } else {
                 return responseProcessor.process(inputStream);
             }
-        } catch (HttpResponseException e) {
+        } catch (HttpResponseException | DeadlineExceededException e) {
             throw e;
         } catch (Exception e) {
+            if (request != null && deadline != null && deadline.isExpired()) {
+                throw deadline.exceeded(String.valueOf(request.getURI()));
+            }
             if (request != null) {
                 logger.error("Error executing http method for url {}", request.getURI(), e);
             }
@@ -169,7 +190,7 @@ public class HttpMethod<R> {
     }
 
     public HttpMethod<R> form() {
-        return new HttpMethod<R>(this.httpClient, authenticator, this.builder, this.params) {
+        return new HttpMethod<R>(this.httpClient, this.requestConfig, authenticator, this.builder, this.params) {
             @Override
             protected void preExecute(RequestBuilder builder) {
                 List<NameValuePair> formParams = new ArrayList<>();
@@ -3,14 +3,25 @@ package org.github.flytreeleft.nexus3.keycloak.plugin.internal.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
 
 public class HttpMethodResponse<R> {
+    /** The mapper is thread-safe once it's configured, so it's shared by all responses */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        MAPPER.setVisibility(VisibilityChecker.Std.defaultInstance().withFieldVisibility(JsonAutoDetect.Visibility.ANY));
+    }
+
     private final HttpMethod<R> method;
 
     public HttpMethodResponse(HttpMethod<R> method) {
@@ -35,13 +46,8 @@ public class HttpMethodResponse<R> {
             @Override
             public R execute() {
                 return method.execute((InputStream inputStream) -> {
-                    ObjectMapper mapper = new ObjectMapper();
-                    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-                    mapper.setVisibility(VisibilityChecker.Std.defaultInstance()
-                                                              .withFieldVisibility(JsonAutoDetect.Visibility.ANY));
-
                     try {
-                        return mapper.readValue(inputStream, responseType);
+                        return MAPPER.readValue(inputStream, responseType);
                     } catch (IOException e) {
                         throw new RuntimeException("Error parsing JSON response for type " + responseType.getType(), e);
                     }
@@ -49,4 +55,59 @@ public class HttpMethodResponse<R> {
             }
         };
     }
+
+    /**
+     * Parse the JSON array of the response element by element with the streaming parser,
+     * so the whole array will not be kept in memory. The result is the number of the elements.
+     */
+    public static <T> HttpResponseProcessor<Integer> jsonArray(Class<T> elementType, Consumer<? super T> consumer) {
+        return (InputStream inputStream) -> {
+            try (JsonParser parser = MAPPER.getFactory().createParser(inputStream)) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Expected a JSON array but got " + parser.getCurrentToken());
+                }
+
+                int count = 0;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    consumer.accept(MAPPER.readValue(parser, elementType));
+                    count += 1;
+                }
+                return count;
+            } catch (IOException e) {
+                throw new RuntimeException("Error parsing JSON array response for type " + elementType, e);
+            }
+        };
+    }
+
+    /**
+     * Pick the string field of every object in the JSON array of the response with the streaming parser,
+     * the other fields are skipped without being parsed to objects. The result is the number of the objects.
+     */
+    public static HttpResponseProcessor<Integer> jsonArrayField(String fieldName, Consumer<String> consumer) {
+        return (InputStream inputStream) -> {
+            try (JsonParser parser = MAPPER.getFactory().createParser(inputStream)) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Expected a JSON array but got " + parser.getCurrentToken());
+                }
+
+                int count = 0;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        JsonToken value = parser.nextToken();
+
+                        if (value == JsonToken.VALUE_STRING && fieldName.equals(name)) {
+                            consumer.accept(parser.getText());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    count += 1;
+                }
+                return count;
+            } catch (IOException e) {
+                throw new RuntimeException("Error parsing the field " + fieldName + " of JSON array response", e);
+            }
+        };
+    }
 }
@@ -69,10 +69,7 @@ public class KeycloakMapper {
 
         Role role = new Role();
         String prefix = representation.getClientRole() ? CLIENT_ROLE_PREFIX : REALM_ROLE_PREFIX;
-        String roleName = String.format("%s:%s%s",
-                                        prefix,
-                                        sourceCode != null ? sourceCode + ":" : "",
-                                        representation.getName());
+        String roleName = RoleIds.format(prefix, sourceCode, representation.getName());
 
         // Use role name as role-id and role-name of Nexus3
         role.setRoleId(roleName);
@@ -92,10 +89,7 @@ public class KeycloakMapper {
         }
 
         Role role = new Role();
-        String roleName = String.format("%s:%s%s",
-                                        REALM_GROUP_PREFIX,
-                                        sourceCode != null ? sourceCode + ":" : "",
-                                        representation.getPath());
+        String roleName = RoleIds.format(REALM_GROUP_PREFIX, sourceCode, representation.getPath());
 
         role.setRoleId(roleName);
         role.setName(roleName);
@@ -107,15 +101,11 @@ public class KeycloakMapper {
 
     /** Just for compatibility */
     public static Set<String> toCompatibleRoleIds(String source, List<?>... lists) {
-        return toRoles(source, null, lists, true).stream()
-                                                 .map(Role::getRoleId)
-                                                 .collect(Collectors.toCollection(LinkedHashSet::new));
+        return toRoleIds(null, lists, true);
     }
 
     public static Set<String> toRoleIds(String source, String sourceCode, List<?>... lists) {
-        return toRoles(source, sourceCode, lists).stream()
-                                                 .map(Role::getRoleId)
-                                                 .collect(Collectors.toCollection(LinkedHashSet::new));
+        return toRoleIds(sourceCode, lists, false);
     }
 
     public static Set<Role> toRoles(String source, String sourceCode, List<?>... lists) {
@@ -145,6 +135,41 @@ public class KeycloakMapper {
         return roles;
     }
 
+    /** Map to the role ids directly, the same ids as {@link #toRoles} but without creating the {@link Role}s */
+    private static Set<String> toRoleIds(String sourceCode, List<?>[] lists, boolean forCompatible) {
+        int size = 0;
+        for (List<?> list : lists) {
+            size += list != null ? list.size() : 0;
+        }
+
+        // The client role has one more compatible role id
+        int expectedSize = forCompatible ? size * 2 : size;
+        Set<String> roleIds = new LinkedHashSet<>(Math.max((int) (expectedSize / .75f) + 1, 16));
+
+        for (List<?> list : lists) {
+            if (list == null || list.isEmpty()) {
+                continue;
+            }
+
+            for (Object representation : list) {
+                if (representation instanceof RoleRepresentation) {
+                    RoleRepresentation role = (RoleRepresentation) representation;
+                    if (forCompatible && role.getClientRole()) {
+                        roleIds.add(role.getName());
+                    }
+
+                    String prefix = role.getClientRole() ? CLIENT_ROLE_PREFIX : REALM_ROLE_PREFIX;
+                    roleIds.add(RoleIds.format(prefix, sourceCode, role.getName()));
+                } else if (representation instanceof GroupRepresentation) {
+                    GroupRepresentation group = (GroupRepresentation) representation;
+
+                    roleIds.add(RoleIds.format(REALM_GROUP_PREFIX, sourceCode, group.getPath()));
+                }
+            }
+        }
+        return roleIds;
+    }
+
     private static Role toCompatibleRole(String source, RoleRepresentation representation) {
         Role role = new Role();
 
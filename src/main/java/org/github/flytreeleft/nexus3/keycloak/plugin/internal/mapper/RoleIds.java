@@ -0,0 +1,18 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mapper;
+
+/**
+ * Format the role ids (e.g. <code>ClientRole:kc0:admin</code>) by the role type, source code and role name
+ * without {@link String#format}.
+ */
+public class RoleIds {
+
+    public static String format(String type, String sourceCode, String name) {
+        int length = type.length() + (sourceCode != null ? sourceCode.length() + 1 : 0) + 1;
+        StringBuilder sb = new StringBuilder(length + (name != null ? name.length() : 4)).append(type).append(':');
+
+        if (sourceCode != null) {
+            sb.append(sourceCode).append(':');
+        }
+        return sb.append(name).toString();
+    }
+}
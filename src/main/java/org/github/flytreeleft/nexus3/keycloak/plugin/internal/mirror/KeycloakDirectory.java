@@ -0,0 +1,127 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.keycloak.representations.idm.UserRepresentation;
+import org.sonatype.nexus.security.role.Role;
+
+/**
+ * The immutable snapshot of the users, their roles and the role catalog of a realm,
+ * which is built by {@link KeycloakDirectorySynchronizer}.
+ */
+public class KeycloakDirectory {
+    /** The username -> the user */
+    private final Map<String, UserRepresentation> users;
+    /** The email -> the username */
+    private final Map<String, String> usernamesByEmail;
+    /** The username -> the Nexus role ids of the user */
+    private final Map<String, Set<String>> roleIdsByUsername;
+    /** The Nexus role id -> the Nexus role */
+    private final Map<String, Role> roles;
+
+    private final long syncedAt;
+    private final long syncDuration;
+
+    private volatile KeycloakUserSearchIndex searchIndex;
+
+    public KeycloakDirectory(
+            Map<String, UserRepresentation> users,
+            Map<String, String> usernamesByEmail,
+            Map<String, Set<String>> roleIdsByUsername,
+            Map<String, Role> roles,
+            long syncedAt,
+            long syncDuration
+    ) {
+        this.users = Collections.unmodifiableMap(users);
+        this.usernamesByEmail = Collections.unmodifiableMap(usernamesByEmail);
+        this.roleIdsByUsername = Collections.unmodifiableMap(roleIdsByUsername);
+        this.roles = Collections.unmodifiableMap(roles);
+        this.syncedAt = syncedAt;
+        this.syncDuration = syncDuration;
+    }
+
+    public UserRepresentation getUserByUsername(String username) {
+        return this.users.get(username);
+    }
+
+    public UserRepresentation getUserByEmail(String email) {
+        String username = this.usernamesByEmail.get(email);
+        UserRepresentation user = username != null ? this.users.get(username) : null;
+
+        // Note: We need to avoid someone try to register email as username to fake others.
+        return user != null && email.equals(user.getEmail()) ? user : null;
+    }
+
+    /** Get the role ids of the user, it's <code>null</code> if the user doesn't exist */
+    public Set<String> getRoleIds(String username) {
+        if (!this.users.containsKey(username)) {
+            return null;
+        }
+
+        Set<String> roleIds = this.roleIdsByUsername.get(username);
+        return roleIds != null ? roleIds : Collections.emptySet();
+    }
+
+    public Collection<UserRepresentation> getUsers() {
+        return this.users.values();
+    }
+
+    /** The search index is built on the first searching */
+    public KeycloakUserSearchIndex getSearchIndex() {
+        KeycloakUserSearchIndex index = this.searchIndex;
+
+        if (index == null) {
+            synchronized (this) {
+                index = this.searchIndex;
+                if (index == null) {
+                    index = new KeycloakUserSearchIndex(this.users.values());
+                    this.searchIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    public Map<String, Role> getRoles() {
+        return this.roles;
+    }
+
+    /** The time (in milliseconds) when the directory was synchronized */
+    public long getSyncedAt() {
+        return this.syncedAt;
+    }
+
+    /** The milliseconds spent on synchronizing the directory */
+    public long getSyncDuration() {
+        return this.syncDuration;
+    }
+
+    public long getStaleness() {
+        return System.currentTimeMillis() - this.syncedAt;
+    }
+
+    public int getUserCount() {
+        return this.users.size();
+    }
+
+    public int getRoleCount() {
+        return this.roles.size();
+    }
+
+    public long getRoleMappingCount() {
+        return this.roleIdsByUsername.values().stream().mapToLong(Set::size).sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{users: %d, roles: %d, role-mappings: %d, sync-duration: %dms, staleness: %dms}",
+                             getUserCount(),
+                             getRoleCount(),
+                             getRoleMappingCount(),
+                             getSyncDuration(),
+                             getStaleness());
+    }
+}
@@ -0,0 +1,220 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.keycloak.representations.idm.UserRepresentation;
+import org.sonatype.nexus.security.role.Role;
+
+/**
+ * Save and load the {@link KeycloakDirectory} with a compact binary file:
+ * <pre>
+ * int    magic ("KCDS")
+ * int    format version
+ * int    length of the payload
+ * long   CRC32 of the payload
+ * bytes  payload: the sync time and duration, the table of the role ids, the roles and the users
+ * </pre>
+ * The role ids of the users are written as the indexes of the role id table, so every role id is saved only once.
+ * The file is written to a temporary file and then moved to the target, so a broken file is never left.
+ * <p/>
+ * The loading reads the whole file once and decodes all roles and users eagerly into a {@link KeycloakDirectory},
+ * which is the same in-memory directory as the synchronized one, so it's only done on starting.
+ * The snapshot is rejected if the magic, version or checksum isn't matched.
+ */
+public class KeycloakDirectorySnapshot {
+    private static final int MAGIC = 0x4B434453; // KCDS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private static final byte NULL = -1;
+
+    public static void save(File file, KeycloakDirectory directory) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream payload = new DataOutputStream(buffer);
+
+        payload.writeLong(directory.getSyncedAt());
+        payload.writeLong(directory.getSyncDuration());
+
+        Map<String, Integer> roleIdIndexes = new HashMap<>();
+        for (UserRepresentation user : directory.getUsers()) {
+            for (String roleId : directory.getRoleIds(user.getUsername())) {
+                roleIdIndexes.putIfAbsent(roleId, roleIdIndexes.size());
+            }
+        }
+        String[] roleIds = new String[roleIdIndexes.size()];
+        roleIdIndexes.forEach((roleId, index) -> roleIds[index] = roleId);
+
+        payload.writeInt(roleIds.length);
+        for (String roleId : roleIds) {
+            writeString(payload, roleId);
+        }
+
+        payload.writeInt(directory.getRoles().size());
+        for (Role role : directory.getRoles().values()) {
+            writeString(payload, role.getRoleId());
+            writeString(payload, role.getName());
+            writeString(payload, role.getDescription());
+            writeString(payload, role.getSource());
+            payload.writeBoolean(role.isReadOnly());
+        }
+
+        payload.writeInt(directory.getUserCount());
+        for (UserRepresentation user : directory.getUsers()) {
+            writeString(payload, user.getId());
+            writeString(payload, user.getUsername());
+            writeString(payload, user.getEmail());
+            writeString(payload, user.getFirstName());
+            writeString(payload, user.getLastName());
+            writeBoolean(payload, user.isEnabled());
+            writeBoolean(payload, user.isEmailVerified());
+
+            Set<String> userRoleIds = directory.getRoleIds(user.getUsername());
+            payload.writeInt(userRoleIds.size());
+            for (String roleId : userRoleIds) {
+                payload.writeInt(roleIdIndexes.get(roleId));
+            }
+        }
+        payload.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray(), 0, buffer.size());
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            DataOutputStream header = new DataOutputStream(out);
+
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(buffer.size());
+            header.writeLong(crc.getValue());
+            buffer.writeTo(header);
+            header.flush();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static KeycloakDirectory load(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a directory snapshot: " + file);
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of the directory snapshot: " + file);
+        }
+
+        int length = buffer.getInt();
+        long checksum = buffer.getLong();
+        if (length < 0 || length != buffer.remaining()) {
+            throw new IOException("The directory snapshot is truncated: " + file);
+        }
+
+        ByteBuffer payload = buffer.slice();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if (crc.getValue() != checksum) {
+            throw new IOException("The checksum of the directory snapshot isn't matched: " + file);
+        }
+
+        long syncedAt = payload.getLong();
+        long syncDuration = payload.getLong();
+
+        String[] roleIds = new String[payload.getInt()];
+        for (int i = 0; i < roleIds.length; i++) {
+            roleIds[i] = readString(payload);
+        }
+
+        int roleCount = payload.getInt();
+        Map<String, Role> roles = new LinkedHashMap<>(roleCount * 2);
+        for (int i = 0; i < roleCount; i++) {
+            Role role = new Role();
+
+            role.setRoleId(readString(payload));
+            role.setName(readString(payload));
+            role.setDescription(readString(payload));
+            role.setSource(readString(payload));
+            role.setReadOnly(payload.get() != 0);
+            roles.put(role.getRoleId(), role);
+        }
+
+        int userCount = payload.getInt();
+        Map<String, UserRepresentation> users = new LinkedHashMap<>(userCount * 2);
+        Map<String, String> usernamesByEmail = new HashMap<>(userCount * 2);
+        Map<String, Set<String>> roleIdsByUsername = new HashMap<>(userCount * 2);
+        for (int i = 0; i < userCount; i++) {
+            UserRepresentation user = new UserRepresentation();
+
+            user.setId(readString(payload));
+            user.setUsername(readString(payload));
+            user.setEmail(readString(payload));
+            user.setFirstName(readString(payload));
+            user.setLastName(readString(payload));
+            user.setEnabled(readBoolean(payload));
+            user.setEmailVerified(readBoolean(payload));
+
+            int roleIdCount = payload.getInt();
+            Set<String> userRoleIds = new LinkedHashSet<>(roleIdCount * 2);
+            for (int j = 0; j < roleIdCount; j++) {
+                userRoleIds.add(roleIds[payload.getInt()]);
+            }
+
+            users.put(user.getUsername(), user);
+            if (user.getEmail() != null) {
+                usernamesByEmail.put(user.getEmail(), user.getUsername());
+            }
+            roleIdsByUsername.put(user.getUsername(), Collections.unmodifiableSet(userRoleIds));
+        }
+
+        return new KeycloakDirectory(users, usernamesByEmail, roleIdsByUsername, roles, syncedAt, syncDuration);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? NULL : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(ByteBuffer buffer) {
+        byte value = buffer.get();
+        return value == NULL ? null : value != 0;
+    }
+}
@@ -0,0 +1,215 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakAdminClient;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakRoleGraph;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.nexus.security.role.Role;
+
+/**
+ * Synchronize the whole {@link KeycloakDirectory} of the realm periodically in the background:
+ * <ul>
+ * <li>All users are fetched page by page;</li>
+ * <li>The direct role-mappings and group memberships are got from {@link KeycloakMembershipIndex},
+ * instead of requesting them user by user;</li>
+ * <li>The effective roles of every user are expanded locally with {@link KeycloakRoleGraph};</li>
+ * </ul>
+ * The new directory replaces the old one atomically once it's built,
+ * and the old one is kept if the synchronizing is failed.
+ * <p/>
+ * The directory is also saved to the snapshot file after every synchronizing, and it's loaded in the background
+ * on starting, so the users can be served soon while the synchronizing is catching up, or when Keycloak is unreachable.
+ * The snapshot never replaces the directory which has been synchronized.
+ * The directory won't be served after it's staler than <code>maxStaleness</code>.
+ */
+public class KeycloakDirectorySynchronizer {
+    private static final Logger logger = LoggerFactory.getLogger(KeycloakDirectorySynchronizer.class);
+
+    private final KeycloakAdminClient client;
+    private final long interval; // seconds
+    private final long maxStaleness; // milliseconds
+    private final File snapshotFile;
+    private final RoleMapper roleMapper;
+
+    private final AtomicReference<KeycloakDirectory> directory = new AtomicReference<>();
+    private volatile long lastFailedAt;
+    private ScheduledFuture<?> synchronizing;
+    private final AtomicBoolean syncRequested = new AtomicBoolean();
+
+    /**
+     * @param interval
+     *         the seconds between two synchronizing
+     * @param maxStaleness
+     *         the max seconds to serve the directory since it was synchronized, no limit if it's not positive
+     * @param snapshotFile
+     *         the file to save the directory, the snapshot is disabled if it's <code>null</code>
+     */
+    public KeycloakDirectorySynchronizer(
+            KeycloakAdminClient client, long interval, long maxStaleness, File snapshotFile, RoleMapper roleMapper
+    ) {
+        this.client = client;
+        this.interval = interval;
+        this.maxStaleness = maxStaleness > 0 ? TimeUnit.SECONDS.toMillis(maxStaleness) : Long.MAX_VALUE;
+        this.snapshotFile = snapshotFile;
+        this.roleMapper = roleMapper;
+    }
+
+    public synchronized void start() {
+        if (this.synchronizing == null) {
+            this.client.getScheduler().execute(this::loadSnapshot);
+            this.synchronizing = this.client.getScheduler().scheduleWithFixedDelay(this::sync,
+                                                                                  0,
+                                                                                  this.interval,
+                                                                                  TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (this.synchronizing != null) {
+            this.synchronizing.cancel(false);
+            this.synchronizing = null;
+        }
+    }
+
+    /**
+     * The latest synchronized directory, or the one loaded from the snapshot before the first synchronizing
+     * is finished. It's <code>null</code> if there is none (yet) or it's too stale.
+     */
+    public KeycloakDirectory getDirectory() {
+        KeycloakDirectory directory = this.directory.get();
+
+        if (directory != null && directory.getStaleness() > this.maxStaleness) {
+            logger.debug("The directory of {} is too stale to be served: {}", this.client.getRealm(), directory);
+            return null;
+        }
+        return directory;
+    }
+
+    /** The time (in milliseconds) when the last synchronizing was failed, it's <code>0</code> if never failed */
+    public long getLastFailedAt() {
+        return this.lastFailedAt;
+    }
+
+    /** Synchronize again as soon as possible, the multiple requests before the synchronizing are coalesced */
+    public void requestSync() {
+        if (this.syncRequested.compareAndSet(false, true)) {
+            this.client.getScheduler().execute(() -> {
+                this.syncRequested.set(false);
+                sync();
+            });
+        }
+    }
+
+    public synchronized void sync() {
+        KeycloakDirectory directory;
+        try {
+            directory = load();
+            this.directory.set(directory);
+            logger.info("The directory of {} is synchronized: {}", this.client.getRealm(), directory);
+        } catch (RuntimeException e) {
+            this.lastFailedAt = System.currentTimeMillis();
+            logger.warn("Failed to synchronize the directory of {}, keep the old one: {}",
+                        this.client.getRealm(),
+                        e.getMessage());
+            return;
+        }
+
+        saveSnapshot(directory);
+    }
+
+    /** Load the directory from the snapshot file, unless the directory has been synchronized */
+    public void loadSnapshot() {
+        if (this.snapshotFile == null || this.directory.get() != null || !this.snapshotFile.exists()) {
+            return;
+        }
+
+        try {
+            KeycloakDirectory directory = KeycloakDirectorySnapshot.load(this.snapshotFile);
+
+            // The synchronizing may be finished during loading, and the newer one should be kept
+            if (this.directory.compareAndSet(null, directory)) {
+                logger.info("The directory of {} is loaded from the snapshot {}: {}",
+                            this.client.getRealm(),
+                            this.snapshotFile,
+                            directory);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to load the directory snapshot {}, ignore it: {}", this.snapshotFile, e.getMessage());
+        }
+    }
+
+    private void saveSnapshot(KeycloakDirectory directory) {
+        if (this.snapshotFile == null) {
+            return;
+        }
+
+        try {
+            KeycloakDirectorySnapshot.save(this.snapshotFile, directory);
+        } catch (IOException e) {
+            logger.warn("Failed to save the directory snapshot {}: {}", this.snapshotFile, e.getMessage());
+        }
+    }
+
+    private KeycloakDirectory load() {
+        long startedAt = System.currentTimeMillis();
+        KeycloakMembershipIndex index = KeycloakMembershipIndex.load(this.client);
+
+        Map<String, UserRepresentation> users = new LinkedHashMap<>();
+        Map<String, String> usernamesByEmail = new HashMap<>();
+        Map<String, Set<String>> roleIdsByUsername = new HashMap<>();
+        // Use a new graph to load the latest composite roles
+        KeycloakRoleGraph graph = new KeycloakRoleGraph(this.client, this.interval);
+
+        this.client.iterateUsers().forEachRemaining((user) -> {
+            List<GroupRepresentation> groups = index.getGroups(user.getUsername());
+            List<RoleRepresentation> roles = graph.getEffectiveRoles(index.getRoleMappings(user.getUsername()), groups);
+
+            users.put(user.getUsername(), user);
+            if (user.getEmail() != null) {
+                usernamesByEmail.put(user.getEmail(), user.getUsername());
+            }
+            roleIdsByUsername.put(user.getUsername(),
+                                  Collections.unmodifiableSet(this.roleMapper.toRoleIds(roles, groups)));
+        });
+
+        Map<String, Role> catalog = new LinkedHashMap<>();
+        this.roleMapper.toRoles(index.getClientRoles(), index.getRealmRoles(), index.getAllGroups())
+                       .forEach((role) -> catalog.put(role.getRoleId(), role));
+
+        return new KeycloakDirectory(users,
+                                     usernamesByEmail,
+                                     roleIdsByUsername,
+                                     catalog,
+                                     startedAt,
+                                     System.currentTimeMillis() - startedAt);
+    }
+
+    /** Map the Keycloak roles and groups to the Nexus roles */
+    public interface RoleMapper {
+
+        /** Map the effective roles (including the client roles of all clients) and the groups of the user */
+        Set<String> toRoleIds(List<RoleRepresentation> roles, List<GroupRepresentation> groups);
+
+        Set<Role> toRoles(
+                List<RoleRepresentation> clientRoles,
+                List<RoleRepresentation> realmRoles,
+                List<GroupRepresentation> groups
+        );
+    }
+}
@@ -0,0 +1,126 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakAdminClient;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.MappingsRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+/**
+ * The inverted index of the direct role-mappings and group memberships of all users,
+ * which is built from the members of every realm role, every client role of all clients and every group,
+ * so the requests are proportional to the number of the roles and groups instead of the users.
+ * <p/>
+ * The client roles of the other clients are indexed too, because their composite roles may include
+ * the roles of the current client, so the expanded roles are the same as the <code>composite</code> role-mappings.
+ */
+public class KeycloakMembershipIndex {
+    private static final int PAGE_SIZE = 100;
+
+    private final List<RoleRepresentation> realmRoles;
+    private final List<RoleRepresentation> clientRoles;
+    private final List<GroupRepresentation> groups;
+    /** The username -> the direct roles of the user */
+    private final Map<String, List<RoleRepresentation>> rolesByUsername = new HashMap<>();
+    /** The username -> the groups which the user joined directly */
+    private final Map<String, List<GroupRepresentation>> groupsByUsername = new HashMap<>();
+
+    private KeycloakMembershipIndex(
+            List<RoleRepresentation> realmRoles, List<RoleRepresentation> clientRoles, List<GroupRepresentation> groups
+    ) {
+        this.realmRoles = realmRoles;
+        this.clientRoles = clientRoles;
+        this.groups = groups;
+    }
+
+    public static KeycloakMembershipIndex load(KeycloakAdminClient client) {
+        String clientId = client.getConfig().getResource();
+        // The client id -> the roles of the client, the current client is the first one
+        Map<String, List<RoleRepresentation>> clientRoles = new LinkedHashMap<>();
+
+        clientRoles.put(clientId, nonNull(client.getRealmClientRoles(clientId)));
+        for (ClientRepresentation realmClient : nonNull(client.getRealmClients())) {
+            String id = realmClient.getClientId();
+            if (!clientRoles.containsKey(id)) {
+                clientRoles.put(id, nonNull(client.getRealmClientRoles(id)));
+            }
+        }
+
+        KeycloakMembershipIndex index = new KeycloakMembershipIndex(nonNull(client.getRealmRoles()),
+                                                                    clientRoles.get(clientId),
+                                                                    nonNull(client.getRealmGroups()));
+
+        for (RoleRepresentation role : index.realmRoles) {
+            forEachPage((first) -> client.getUsersOfRealmRole(role.getName(), first, PAGE_SIZE),
+                        (user) -> index.add(index.rolesByUsername, user, role));
+        }
+        clientRoles.forEach((id, roles) -> {
+            for (RoleRepresentation role : roles) {
+                forEachPage((first) -> client.getUsersOfClientRole(id, role.getName(), first, PAGE_SIZE),
+                            (user) -> index.add(index.rolesByUsername, user, role));
+            }
+        });
+        for (GroupRepresentation group : index.groups) {
+            forEachPage((first) -> client.getMembersOfGroup(group, first, PAGE_SIZE),
+                        (user) -> index.add(index.groupsByUsername, user, group));
+        }
+        return index;
+    }
+
+    /** Get the direct role-mappings of the user, all the roles are put in the realm mappings */
+    public MappingsRepresentation getRoleMappings(String username) {
+        MappingsRepresentation mappings = new MappingsRepresentation();
+        mappings.setRealmMappings(this.rolesByUsername.get(username));
+
+        return mappings;
+    }
+
+    public List<GroupRepresentation> getGroups(String username) {
+        return this.groupsByUsername.getOrDefault(username, Collections.emptyList());
+    }
+
+    public List<RoleRepresentation> getRealmRoles() {
+        return this.realmRoles;
+    }
+
+    /** Get the roles of the current client */
+    public List<RoleRepresentation> getClientRoles() {
+        return this.clientRoles;
+    }
+
+    public List<GroupRepresentation> getAllGroups() {
+        return this.groups;
+    }
+
+    private <T> void add(Map<String, List<T>> index, UserRepresentation user, T value) {
+        index.computeIfAbsent(user.getUsername(), (username) -> new ArrayList<>()).add(value);
+    }
+
+    private static void forEachPage(IntFunction<List<UserRepresentation>> pager, Consumer<UserRepresentation> consumer) {
+        for (int first = 0; ; first += PAGE_SIZE) {
+            List<UserRepresentation> page = pager.apply(first);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+
+            page.forEach(consumer);
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+    }
+
+    private static <T> List<T> nonNull(List<T> list) {
+        return list != null ? list : Collections.emptyList();
+    }
+}
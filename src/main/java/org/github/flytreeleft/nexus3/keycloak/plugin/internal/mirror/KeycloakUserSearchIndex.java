@@ -0,0 +1,209 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.keycloak.representations.idm.UserRepresentation;
+
+/**
+ * The in-memory search index of the users for the typeahead searching:
+ * <ul>
+ * <li>The lower-cased username, email, first name and last name are put in a sorted array,
+ * so the prefix matching is a binary search;</li>
+ * <li>The trigrams of the above fields are indexed to the sorted user positions,
+ * so the substring matching (like Keycloak does) only verifies the users which have all the trigrams of the text;</li>
+ * </ul>
+ * The text which is shorter than 3 characters only matches the prefixes of the fields.
+ * The index is immutable, and the users are returned in the same order as they are indexed.
+ */
+public class KeycloakUserSearchIndex {
+    private static final int GRAM = 3;
+
+    private final UserRepresentation[] users;
+    /** The sorted lower-cased field values */
+    private final String[] keys;
+    /** The user positions of the keys */
+    private final int[] keyUsers;
+    /** The trigram -> the sorted user positions */
+    private final Map<String, int[]> trigrams;
+
+    public KeycloakUserSearchIndex(Collection<UserRepresentation> users) {
+        this.users = users.toArray(new UserRepresentation[0]);
+
+        List<Key> keys = new ArrayList<>(this.users.length * 4);
+        Map<String, IntList> trigrams = new HashMap<>();
+        for (int i = 0; i < this.users.length; i++) {
+            for (String field : fields(this.users[i])) {
+                if (field == null || field.isEmpty()) {
+                    continue;
+                }
+
+                String value = field.toLowerCase(Locale.ROOT);
+                keys.add(new Key(value, i));
+                for (int j = 0; j + GRAM <= value.length(); j++) {
+                    trigrams.computeIfAbsent(value.substring(j, j + GRAM), (gram) -> new IntList()).add(i);
+                }
+            }
+        }
+        keys.sort((a, b) -> a.value.compareTo(b.value));
+
+        this.keys = new String[keys.size()];
+        this.keyUsers = new int[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            this.keys[i] = keys.get(i).value;
+            this.keyUsers[i] = keys.get(i).user;
+        }
+
+        this.trigrams = new HashMap<>(trigrams.size() * 2);
+        trigrams.forEach((gram, list) -> this.trigrams.put(gram, list.toArray()));
+    }
+
+    /**
+     * Search the users whose username, email, first name or last name contains the text
+     *
+     * @param text
+     *         the text to search, all users are matched if it's empty
+     * @param filter
+     *         the extra condition of the matched users
+     * @param limit
+     *         the max number of the returned users, no limit if it's not positive
+     */
+    public List<UserRepresentation> search(String text, Predicate<UserRepresentation> filter, int limit) {
+        String query = text != null ? text.toLowerCase(Locale.ROOT) : "";
+        int max = limit > 0 ? limit : Integer.MAX_VALUE;
+        List<UserRepresentation> result = new ArrayList<>(Math.min(max, 16));
+
+        if (query.isEmpty()) {
+            for (int i = 0; i < this.users.length && result.size() < max; i++) {
+                collect(this.users[i], filter, result);
+            }
+        } else if (query.length() < GRAM) {
+            BitSet matched = matchPrefix(query);
+
+            for (int i = matched.nextSetBit(0); i >= 0 && result.size() < max; i = matched.nextSetBit(i + 1)) {
+                collect(this.users[i], filter, result);
+            }
+        } else {
+            for (int i : matchTrigrams(query)) {
+                if (result.size() >= max) {
+                    break;
+                } else if (contains(this.users[i], query)) {
+                    collect(this.users[i], filter, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return this.users.length;
+    }
+
+    private BitSet matchPrefix(String prefix) {
+        BitSet matched = new BitSet(this.users.length);
+
+        int i = Arrays.binarySearch(this.keys, prefix);
+        for (i = i >= 0 ? i : -i - 1; i < this.keys.length && this.keys[i].startsWith(prefix); i++) {
+            matched.set(this.keyUsers[i]);
+        }
+        return matched;
+    }
+
+    /** Intersect the user positions of all the trigrams of the text, from the shortest one */
+    private int[] matchTrigrams(String text) {
+        List<int[]> postings = new ArrayList<>();
+
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            int[] posting = this.trigrams.get(text.substring(i, i + GRAM));
+            if (posting == null) {
+                return new int[0];
+            }
+            postings.add(posting);
+        }
+        postings.sort((a, b) -> Integer.compare(a.length, b.length));
+
+        int[] matched = postings.get(0);
+        for (int i = 1; i < postings.size() && matched.length > 0; i++) {
+            matched = intersect(matched, postings.get(i));
+        }
+        return matched;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static void collect(
+            UserRepresentation user, Predicate<UserRepresentation> filter, List<UserRepresentation> result
+    ) {
+        if (filter == null || filter.test(user)) {
+            result.add(user);
+        }
+    }
+
+    /** The trigrams may come from different fields, so the text must be checked in every single field */
+    private static boolean contains(UserRepresentation user, String text) {
+        for (String field : fields(user)) {
+            if (field != null && field.toLowerCase(Locale.ROOT).contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] fields(UserRepresentation user) {
+        return new String[] { user.getUsername(), user.getEmail(), user.getFirstName(), user.getLastName() };
+    }
+
+    private static class Key {
+        private final String value;
+        private final int user;
+
+        private Key(String value, int user) {
+            this.value = value;
+            this.user = user;
+        }
+    }
+
+    /** The growable array of the ascending user positions without duplicates */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (this.size > 0 && this.values[this.size - 1] == value) {
+                return;
+            }
+
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+}
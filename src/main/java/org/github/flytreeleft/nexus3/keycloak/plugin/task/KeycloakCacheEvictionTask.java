@@ -0,0 +1,58 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.task;
+
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.shiro.realm.Realm;
+import org.apache.shiro.util.StringUtils;
+import org.github.flytreeleft.nexus3.keycloak.plugin.KeycloakAuthenticatingRealm;
+import org.sonatype.nexus.scheduling.TaskSupport;
+
+/**
+ * Evict the cached roles of a user (or all users) from all Keycloak realms,
+ * so the changes of the role-mappings in Keycloak can take effect immediately.
+ */
+@Named
+public class KeycloakCacheEvictionTask extends TaskSupport {
+    private final Map<String, Realm> realms;
+
+    @Inject
+    public KeycloakCacheEvictionTask(Map<String, Realm> realms) {
+        this.realms = realms;
+    }
+
+    @Override
+    protected Object execute() throws Exception {
+        String username = getUsername();
+
+        for (Realm realm : this.realms.values()) {
+            if (!(realm instanceof KeycloakAuthenticatingRealm)) {
+                continue;
+            }
+
+            if (StringUtils.hasText(username)) {
+                // The realm caches the roles by the lowercase username
+                ((KeycloakAuthenticatingRealm) realm).evictAuthorizationInfo(username.toLowerCase());
+            } else {
+                ((KeycloakAuthenticatingRealm) realm).evictAllAuthorizationInfo();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getMessage() {
+        String username = getUsername();
+
+        return StringUtils.hasText(username)
+               ? "Evict the cached roles of " + username
+               : "Evict the cached roles of all users";
+    }
+
+    private String getUsername() {
+        String username = getConfiguration().getString(KeycloakCacheEvictionTaskDescriptor.USERNAME_FIELD_ID);
+
+        return username != null ? username.trim() : null;
+    }
+}
@@ -0,0 +1,28 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.task;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.sonatype.nexus.formfields.FormField;
+import org.sonatype.nexus.formfields.StringTextFormField;
+import org.sonatype.nexus.scheduling.TaskDescriptorSupport;
+
+@Named
+@Singleton
+public class KeycloakCacheEvictionTaskDescriptor extends TaskDescriptorSupport {
+    public static final String TYPE_ID = "keycloak.cache.eviction";
+
+    public static final String USERNAME_FIELD_ID = "username";
+
+    public KeycloakCacheEvictionTaskDescriptor() {
+        super(TYPE_ID,
+              KeycloakCacheEvictionTask.class,
+              "Keycloak - Evict the cached roles",
+              VISIBLE,
+              EXPOSED,
+              new StringTextFormField(USERNAME_FIELD_ID,
+                                      "Username",
+                                      "The user whose cached roles will be evicted, leave it empty to evict all users",
+                                      FormField.OPTIONAL));
+    }
+}
@@ -40,6 +40,21 @@ public class KeycloakAuthenticatingRealmTest {
         Assert.assertTrue(info.getRoles().contains("role2"));
     }
 
+    @Test
+    public void testDoGetAuthorizationInfoCached() {
+        PrincipalCollection principals = new SimplePrincipalCollection("Test1", KeycloakAuthenticatingRealm.NAME);
+        Mockito.when(this.mockedClient.findRoleIdsByUserId("Test1")).thenReturn(fakeAuths());
+
+        this.r.doGetAuthorizationInfo(principals);
+        AuthorizationInfo info = this.r.doGetAuthorizationInfo(principals);
+        Assert.assertEquals(2, info.getRoles().size());
+        Mockito.verify(this.mockedClient, Mockito.times(1)).findRoleIdsByUserId("Test1");
+
+        this.r.evictAuthorizationInfo("Test1");
+        this.r.doGetAuthorizationInfo(principals);
+        Mockito.verify(this.mockedClient, Mockito.times(2)).findRoleIdsByUserId("Test1");
+    }
+
     private Set<String> fakeAuths() {
         Set<String> auths = new HashSet<>();
         auths.add("role1");
@@ -61,4 +76,32 @@ public class KeycloakAuthenticatingRealmTest {
         AuthenticationInfo info = this.r.doGetAuthenticationInfo(token);
         Assert.assertNotNull(info);
     }
+
+    @Test
+    public void testDoGetAuthenticationInfoWithRepeatedFailures() {
+        UsernamePasswordToken token = new UsernamePasswordToken("u1", new char[] { 'p', '1' });
+        Mockito.when(this.mockedClient.authenticate((AuthenticationToken) token)).thenReturn(false);
+
+        Assert.assertNull(this.r.doGetAuthenticationInfo(token));
+        Assert.assertNull(this.r.doGetAuthenticationInfo(token));
+        Mockito.verify(this.mockedClient, Mockito.times(1)).authenticate((AuthenticationToken) token);
+    }
+
+    @Test
+    public void testDoGetAuthenticationInfoInBackoff() {
+        UsernamePasswordToken failed = new UsernamePasswordToken("u1", new char[] { 'p', '1' });
+        UsernamePasswordToken cached = new UsernamePasswordToken("u1", new char[] { 'p', '2' });
+        UsernamePasswordToken unknown = new UsernamePasswordToken("u1", new char[] { 'p', '3' });
+        Mockito.when(this.mockedClient.authenticate((AuthenticationToken) failed)).thenReturn(false);
+        Mockito.when(this.mockedClient.authenticate((AuthenticationToken) cached)).thenReturn(true);
+        Mockito.when(this.mockedClient.isCredentialCached(cached)).thenReturn(true);
+
+        Assert.assertNull(this.r.doGetAuthenticationInfo(failed));
+        Assert.assertNull(this.r.doGetAuthenticationInfo(unknown));
+        Mockito.verify(this.mockedClient, Mockito.never()).authenticate((AuthenticationToken) unknown);
+
+        // The stale password doesn't lock out the client with the verified password
+        Assert.assertNotNull(this.r.doGetAuthenticationInfo(cached));
+        Assert.assertNull(this.r.doGetAuthenticationInfo(failed));
+    }
 }
@@ -0,0 +1,93 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mapper.KeycloakMapper;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.sonatype.nexus.security.role.Role;
+
+/**
+ * Compare mapping the role ids via the {@link Role}s with mapping them directly.
+ * <p/>
+ * Run it via {@link #main(String[])} in the IDE, the option <code>-prof gc</code> is enabled
+ * to show the allocation rate (<code>gc.alloc.rate.norm</code>) of each way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeycloakMapperBenchmark {
+    @Param({ "10", "100" })
+    private int size;
+
+    private List<RoleRepresentation> clientRoles;
+    private List<RoleRepresentation> realmRoles;
+    private List<GroupRepresentation> realmGroups;
+
+    @Setup
+    public void setup() {
+        this.clientRoles = new ArrayList<>();
+        this.realmRoles = new ArrayList<>();
+        this.realmGroups = new ArrayList<>();
+
+        for (int i = 0; i < this.size; i++) {
+            this.clientRoles.add(new RoleRepresentation("client-role-" + i, null, false));
+            this.clientRoles.get(i).setClientRole(true);
+            this.realmRoles.add(new RoleRepresentation("realm-role-" + i, null, false));
+            this.realmRoles.get(i).setClientRole(false);
+
+            GroupRepresentation group = new GroupRepresentation();
+            group.setPath("/group/" + i);
+            this.realmGroups.add(group);
+        }
+    }
+
+    @Benchmark
+    public Set<String> toRoleIdsViaRoles() {
+        return KeycloakMapper.toRoles("Keycloak", "kc0", this.clientRoles, this.realmRoles, this.realmGroups)
+                             .stream()
+                             .map(Role::getRoleId)
+                             .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    @Benchmark
+    public Set<String> toRoleIds() {
+        return KeycloakMapper.toRoleIds("Keycloak", "kc0", this.clientRoles, this.realmRoles, this.realmGroups);
+    }
+
+    @Benchmark
+    public Set<String> toCompatibleRoleIds() {
+        return KeycloakMapper.toCompatibleRoleIds("Keycloak", this.clientRoles, this.realmRoles, this.realmGroups);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(KeycloakMapperBenchmark.class.getSimpleName())
+                                              .addProfiler("gc")
+                                              .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,172 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.representations.idm.AdminEventRepresentation;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KeycloakAdminEventPollerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeycloakAdminClient mockedClient;
+    private File cursorFile;
+    private List<String> handled;
+    private Set<String> failures;
+
+    @Before
+    public void before() throws Exception {
+        this.mockedClient = mock(KeycloakAdminClient.class);
+        when(this.mockedClient.getScheduler()).thenReturn(mock(ScheduledExecutorService.class));
+
+        this.cursorFile = new File(this.folder.getRoot(), "admin-events.cursor");
+        this.handled = new ArrayList<>();
+        this.failures = new HashSet<>();
+    }
+
+    @Test
+    public void testHandleEventsOfSameTime() throws Exception {
+        Files.write(this.cursorFile.toPath(), "1000".getBytes(StandardCharsets.UTF_8));
+
+        // The events are sorted from the latest one
+        AdminEventRepresentation first = event(2000, "users/alice-id");
+        AdminEventRepresentation second = event(2000, "users/bob-id");
+        AdminEventRepresentation third = event(2000, "users/carol-id");
+        AdminEventRepresentation old = event(500, "users/old-id");
+
+        KeycloakAdminEventPoller poller = poller();
+        poller.start();
+
+        events(first, old);
+        poller.poll();
+        Assert.assertEquals(Collections.singletonList("users/alice-id"), this.handled);
+
+        // The other events of the same millisecond come after polling
+        events(third, second, first, old);
+        poller.poll();
+        Assert.assertEquals(Arrays.asList("users/alice-id", "users/bob-id", "users/carol-id"), this.handled);
+
+        poller.poll();
+        Assert.assertEquals(3, this.handled.size());
+    }
+
+    @Test
+    public void testPersistCursor() throws Exception {
+        AdminEventRepresentation first = event(2000, "users/alice-id");
+        AdminEventRepresentation second = event(2000, "users/bob-id");
+
+        Files.write(this.cursorFile.toPath(), "1000".getBytes(StandardCharsets.UTF_8));
+        KeycloakAdminEventPoller poller = poller();
+        poller.start();
+
+        events(first);
+        poller.poll();
+        poller.stop();
+        Assert.assertEquals("2000", Files.readAllLines(this.cursorFile.toPath()).get(0));
+
+        // Restart with the persisted cursor
+        this.handled.clear();
+        poller = poller();
+        poller.start();
+
+        events(second, first);
+        poller.poll();
+        Assert.assertEquals(Collections.singletonList("users/bob-id"), this.handled);
+    }
+
+    @Test
+    public void testStartWithoutCursor() throws Exception {
+        // The clock of Keycloak is far behind the local one
+        AdminEventRepresentation old = event(5000, "users/old-id");
+        AdminEventRepresentation first = event(6000, "users/alice-id");
+
+        events(old);
+        KeycloakAdminEventPoller poller = poller();
+        poller.start();
+
+        Assert.assertEquals("5000", Files.readAllLines(this.cursorFile.toPath()).get(0));
+
+        events(first, old);
+        poller.poll();
+        Assert.assertEquals(Collections.singletonList("users/alice-id"), this.handled);
+    }
+
+    @Test
+    public void testStartWhenKeycloakIsDown() {
+        when(this.mockedClient.getAdminEvents(any(), anyInt(), anyInt())).thenThrow(new IllegalStateException());
+        KeycloakAdminEventPoller poller = poller();
+        poller.start();
+
+        Assert.assertFalse(this.cursorFile.exists());
+
+        // The cursor is started in the next polling
+        events(event(5000, "users/old-id"));
+        poller.poll();
+        Assert.assertTrue(this.cursorFile.exists());
+        Assert.assertTrue(this.handled.isEmpty());
+    }
+
+    @Test
+    public void testRetryFailedEvent() throws Exception {
+        Files.write(this.cursorFile.toPath(), "1000".getBytes(StandardCharsets.UTF_8));
+
+        AdminEventRepresentation first = event(2000, "users/alice-id");
+        AdminEventRepresentation second = event(3000, "users/bob-id");
+        AdminEventRepresentation third = event(4000, "users/carol-id");
+
+        KeycloakAdminEventPoller poller = poller();
+        poller.start();
+
+        this.failures.add("users/bob-id");
+        events(third, second, first);
+        poller.poll();
+        Assert.assertEquals(Collections.singletonList("users/alice-id"), this.handled);
+        Assert.assertEquals("2000", Files.readAllLines(this.cursorFile.toPath()).get(0));
+
+        // The failed event and the following ones are handled again
+        poller.poll();
+        Assert.assertEquals(Arrays.asList("users/alice-id", "users/bob-id", "users/carol-id"), this.handled);
+        Assert.assertEquals("4000", Files.readAllLines(this.cursorFile.toPath()).get(0));
+    }
+
+    private KeycloakAdminEventPoller poller() {
+        return new KeycloakAdminEventPoller(this.mockedClient, this.cursorFile, 60, (event) -> {
+            if (this.failures.remove(event.getResourcePath())) {
+                throw new IllegalStateException("Keycloak is down");
+            }
+            this.handled.add(event.getResourcePath());
+        });
+    }
+
+    private void events(AdminEventRepresentation... events) {
+        doReturn(Arrays.asList(events)).when(this.mockedClient).getAdminEvents(any(), anyInt(), anyInt());
+    }
+
+    private static AdminEventRepresentation event(long time, String path) {
+        AdminEventRepresentation event = new AdminEventRepresentation();
+        event.setTime(time);
+        event.setOperationType("UPDATE");
+        event.setResourceType("USER");
+        event.setResourcePath(path);
+        return event;
+    }
+}
@@ -0,0 +1,92 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.representations.idm.ClientRepresentation;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class KeycloakRealmClientCacheTest {
+    private KeycloakAdminClient client;
+    private List<String> calledIds;
+
+    @Before
+    public void before() {
+        this.client = spy(new KeycloakAdminClient(new AdapterConfig()));
+        this.calledIds = new ArrayList<>();
+    }
+
+    @Test
+    public void testCacheRealmClient() {
+        doReturn(client("old-id")).when(this.client).findRealmClient("nexus3");
+
+        Assert.assertEquals("old-id", this.client.getRealmClient("nexus3").getId());
+        Assert.assertEquals("old-id", this.client.getRealmClient("nexus3").getId());
+        verify(this.client, times(1)).findRealmClient("nexus3");
+    }
+
+    @Test
+    public void testRetryWithChangedClientId() {
+        doReturn(client("old-id")).doReturn(client("new-id")).when(this.client).findRealmClient("nexus3");
+        doReturn(false).when(this.client).existsRealmClient(any(ClientRepresentation.class));
+
+        // The client was recreated with a new id, so the cached one is not found
+        String result = this.client.withRealmClient("nexus3", (client) -> {
+            this.calledIds.add(client.getId());
+            return "new-id".equals(client.getId()) ? "roles" : null;
+        });
+
+        Assert.assertEquals("roles", result);
+        Assert.assertEquals(2, this.calledIds.size());
+        Assert.assertEquals("new-id", this.client.getRealmClient("nexus3").getId());
+        verify(this.client, times(2)).findRealmClient("nexus3");
+    }
+
+    @Test
+    public void testNoRetryWithExistingClient() {
+        doReturn(client("old-id")).when(this.client).findRealmClient("nexus3");
+        doReturn(true).when(this.client).existsRealmClient(any(ClientRepresentation.class));
+
+        // The requested role or user is not found, but the client still exists
+        String result = this.client.withRealmClient("nexus3", (client) -> {
+            this.calledIds.add(client.getId());
+            return null;
+        });
+
+        Assert.assertNull(result);
+        Assert.assertEquals(1, this.calledIds.size());
+        Assert.assertEquals("old-id", this.client.getRealmClient("nexus3").getId());
+        verify(this.client, times(1)).findRealmClient("nexus3");
+    }
+
+    @Test
+    public void testCallWithoutClient() {
+        doReturn(null).when(this.client).findRealmClient("nexus3");
+
+        String result = this.client.withRealmClient("nexus3", (client) -> {
+            this.calledIds.add(client.getId());
+            return "roles";
+        });
+
+        Assert.assertNull(result);
+        Assert.assertTrue(this.calledIds.isEmpty());
+        verify(this.client, never()).existsRealmClient(any(ClientRepresentation.class));
+    }
+
+    private static ClientRepresentation client(String id) {
+        ClientRepresentation client = new ClientRepresentation();
+        client.setId(id);
+        client.setClientId("nexus3");
+        return client;
+    }
+}
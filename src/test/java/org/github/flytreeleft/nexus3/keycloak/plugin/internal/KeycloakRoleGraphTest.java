@@ -0,0 +1,171 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.RefreshingSnapshot;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.MappingsRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeycloakRoleGraphTest {
+    private KeycloakAdminClient mockedClient;
+    private KeycloakRoleGraph graph;
+
+    @Before
+    public void before() {
+        this.mockedClient = mock(KeycloakAdminClient.class);
+        this.graph = new KeycloakRoleGraph(this.mockedClient, 60);
+    }
+
+    @Test
+    public void testGetEffectiveRoles() {
+        RoleRepresentation r1 = role("r1", true);
+        RoleRepresentation r2 = role("r2", true);
+        RoleRepresentation r3 = role("r3", false);
+        RoleRepresentation r4 = role("r4", false);
+        // r1 -> r2 -> (r1, r3)
+        when(this.mockedClient.getRoleComposites("r1")).thenReturn(Collections.singletonList(r2));
+        when(this.mockedClient.getRoleComposites("r2")).thenReturn(Arrays.asList(r1, r3));
+
+        GroupRepresentation parent = group("g1", "/parent");
+        GroupRepresentation child = group("g2", "/parent/child");
+        when(this.mockedClient.getRealmGroups()).thenReturn(Arrays.asList(parent, child));
+        when(this.mockedClient.getRoleMappingsOfGroup(any())).thenAnswer((invocation) -> {
+            GroupRepresentation group = invocation.getArgument(0);
+            return mappings("g1".equals(group.getId()) ? r4 : null);
+        });
+
+        Assert.assertEquals(ids("r1", "r2", "r3", "r4"),
+                            ids(this.graph.getEffectiveRoles(mappings(r1), Collections.singletonList(child))));
+
+        // The composites and closures should be memoized
+        Assert.assertEquals(ids("r2", "r1", "r3"),
+                            ids(this.graph.getEffectiveRoles(mappings(r2), Collections.emptyList())));
+        verify(this.mockedClient, times(1)).getRoleComposites("r1");
+        verify(this.mockedClient, times(1)).getRoleComposites("r2");
+    }
+
+    @Test
+    public void testLoadCompositesOnceConcurrently() throws Exception {
+        RoleRepresentation r1 = role("r1", true);
+        RoleRepresentation r2 = role("r2", false);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        when(this.mockedClient.getRoleComposites("r1")).thenAnswer((invocation) -> {
+            loading.countDown();
+            finished.await(10, TimeUnit.SECONDS);
+            return Collections.singletonList(r2);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<RoleRepresentation>> first
+                    = executor.submit(() -> this.graph.getEffectiveRoles(mappings(r1), null));
+            loading.await(10, TimeUnit.SECONDS);
+
+            Future<List<RoleRepresentation>> second
+                    = executor.submit(() -> this.graph.getEffectiveRoles(mappings(r1), null));
+            // Make sure the second one is waiting for the in-flight loading
+            Thread.sleep(100);
+            finished.countDown();
+
+            Assert.assertEquals(ids("r1", "r2"), ids(first.get(10, TimeUnit.SECONDS)));
+            Assert.assertEquals(ids("r1", "r2"), ids(second.get(10, TimeUnit.SECONDS)));
+            verify(this.mockedClient, times(1)).getRoleComposites("r1");
+        } finally {
+            finished.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResolveParentGroupsOnce() {
+        GroupRepresentation root = group("g1", "/root");
+        GroupRepresentation parent = group("g2", "/root/parent");
+        GroupRepresentation child = group("g3", "/root/parent/child");
+        GroupRepresentation other = group("g4", "/root/other");
+        when(this.mockedClient.getRealmGroups()).thenReturn(Arrays.asList(root, parent, child, other));
+        when(this.mockedClient.getRoleMappingsOfGroup(any())).thenAnswer((invocation) -> {
+            GroupRepresentation group = invocation.getArgument(0);
+            return mappings(role(group.getId() + "-role", false));
+        });
+
+        Assert.assertEquals(ids("g1-role", "g2-role", "g3-role"),
+                            ids(this.graph.getEffectiveRoles(null, Collections.singletonList(child))));
+        Assert.assertEquals(ids("g1-role", "g4-role"),
+                            ids(this.graph.getEffectiveRoles(null, Collections.singletonList(other))));
+
+        // All the groups are loaded once for the graph
+        verify(this.mockedClient, times(1)).getRealmGroups();
+        verify(this.mockedClient, never()).getRealmGroupByGroupPath(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testResolveParentGroupsByIndex() {
+        GroupRepresentation parent = group("g1", "/parent");
+        GroupRepresentation child = group("g2", "/parent/child");
+        RefreshingSnapshot<Map<String, GroupRepresentation>> mockedIndex = mock(RefreshingSnapshot.class);
+        when(mockedIndex.get()).thenReturn(Collections.singletonMap("/parent", parent));
+        when(this.mockedClient.getRealmGroupIndex()).thenReturn(mockedIndex);
+        when(this.mockedClient.getRoleMappingsOfGroup(any())).thenAnswer((invocation) -> {
+            GroupRepresentation group = invocation.getArgument(0);
+            return mappings(role(group.getId() + "-role", false));
+        });
+
+        Assert.assertEquals(ids("g1-role", "g2-role"),
+                            ids(this.graph.getEffectiveRoles(null, Collections.singletonList(child))));
+        verify(this.mockedClient, never()).getRealmGroups();
+    }
+
+    private RoleRepresentation role(String id, boolean composite) {
+        RoleRepresentation role = new RoleRepresentation();
+        role.setId(id);
+        role.setName(id);
+        role.setComposite(composite);
+        role.setClientRole(false);
+        return role;
+    }
+
+    private GroupRepresentation group(String id, String path) {
+        GroupRepresentation group = new GroupRepresentation();
+        group.setId(id);
+        group.setPath(path);
+        return group;
+    }
+
+    private MappingsRepresentation mappings(RoleRepresentation role) {
+        MappingsRepresentation mappings = new MappingsRepresentation();
+        mappings.setRealmMappings(role != null ? Collections.singletonList(role) : null);
+        return mappings;
+    }
+
+    private Set<String> ids(String... ids) {
+        return Arrays.stream(ids).collect(Collectors.toSet());
+    }
+
+    private Set<String> ids(List<RoleRepresentation> roles) {
+        return roles.stream().map(RoleRepresentation::getId).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,160 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.VerificationException;
+import org.keycloak.common.util.Time;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKBuilder;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.util.JsonSerialization;
+import org.keycloak.util.TokenUtil;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeycloakTokenVerifierTest {
+    private static final String REALM_URL = "http://localhost:8080/auth/realms/default";
+
+    private KeyPair keyPair;
+    private AdapterConfig config;
+    private KeycloakPluginConfig pluginConfig;
+    private KeycloakAdminClient mockedClient;
+    private KeycloakTokenVerifier verifier;
+
+    @Before
+    public void before() throws NoSuchAlgorithmException, IOException {
+        this.keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        this.config = new AdapterConfig();
+        this.config.setAuthServerUrl("http://localhost:8080/auth");
+        this.config.setRealm("default");
+        this.config.setResource("nexus3");
+        this.config.setMinTimeBetweenJwksRequests(0);
+
+        this.pluginConfig = new KeycloakPluginConfig();
+
+        this.mockedClient = mock(KeycloakAdminClient.class);
+        when(this.mockedClient.getConfig()).thenReturn(this.config);
+        when(this.mockedClient.getPluginConfig()).thenReturn(this.pluginConfig);
+        when(this.mockedClient.obtainJsonWebKeySet()).thenReturn(jwks("k1"));
+
+        this.verifier = new KeycloakTokenVerifier(this.mockedClient);
+    }
+
+    @Test
+    public void testVerify() throws VerificationException {
+        AccessToken token = this.verifier.verify(sign("k1", accessToken("nexus3", 60)));
+        Assert.assertEquals("u1", token.getPreferredUsername());
+
+        // The public keys should be cached
+        this.verifier.verify(sign("k1", accessToken("nexus3", 60)));
+        verify(this.mockedClient, times(1)).obtainJsonWebKeySet();
+    }
+
+    @Test(expected = VerificationException.class)
+    public void testVerifyExpiredToken() throws VerificationException {
+        this.verifier.verify(sign("k1", accessToken("nexus3", -60)));
+    }
+
+    @Test(expected = VerificationException.class)
+    public void testVerifyInvalidAudience() throws VerificationException {
+        this.verifier.verify(sign("k1", accessToken("other", 60)));
+    }
+
+    @Test(expected = VerificationException.class)
+    public void testVerifyTokenForOtherClient() throws VerificationException {
+        AccessToken token = accessToken("nexus3", 60);
+        token.issuedFor("other");
+
+        this.verifier.verify(sign("k1", token));
+    }
+
+    @Test
+    public void testVerifyTokenForAnyClient() throws VerificationException {
+        this.pluginConfig.setHeaderTokenIssuedFor(KeycloakPluginConfig.TOKEN_ISSUED_FOR_ANY);
+        this.verifier = new KeycloakTokenVerifier(this.mockedClient);
+
+        AccessToken token = accessToken("nexus3", 60);
+        token.issuedFor("gatekeeper");
+        Assert.assertEquals("u1", this.verifier.verify(sign("k1", token)).getPreferredUsername());
+
+        // The audience is still verified
+        token = accessToken("other", 60);
+        token.issuedFor("gatekeeper");
+        try {
+            this.verifier.verify(sign("k1", token));
+            Assert.fail("The token for the other audience should be rejected");
+        } catch (VerificationException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("audience"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRefuseWithoutClient() {
+        this.config.setResource(null);
+
+        new KeycloakTokenVerifier(this.mockedClient);
+    }
+
+    @Test(expected = VerificationException.class)
+    public void testVerifyIdToken() throws VerificationException {
+        AccessToken token = accessToken("nexus3", 60);
+        token.type(TokenUtil.TOKEN_TYPE_ID);
+
+        this.verifier.verify(sign("k1", token));
+    }
+
+    @Test(expected = VerificationException.class)
+    public void testVerifyForeignIssuer() throws VerificationException {
+        AccessToken token = accessToken("nexus3", 60);
+        token.issuer("http://localhost:8080/auth/realms/other");
+
+        this.verifier.verify(sign("k1", token));
+    }
+
+    @Test
+    public void testVerifyWithRotatedKey() throws VerificationException, IOException {
+        this.verifier.verify(sign("k1", accessToken("nexus3", 60)));
+
+        when(this.mockedClient.obtainJsonWebKeySet()).thenReturn(jwks("k2"));
+        AccessToken token = this.verifier.verify(sign("k2", accessToken("nexus3", 60)));
+
+        Assert.assertEquals("u1", token.getPreferredUsername());
+        verify(this.mockedClient, times(2)).obtainJsonWebKeySet();
+    }
+
+    private JSONWebKeySet jwks(String kid) throws IOException {
+        JSONWebKeySet jwks = new JSONWebKeySet();
+        jwks.setKeys(new JWK[] { JWKBuilder.create().kid(kid).rs256(this.keyPair.getPublic()) });
+
+        // Make sure the keys are the same as the ones which are responded by Keycloak
+        return JsonSerialization.readValue(JsonSerialization.writeValueAsString(jwks), JSONWebKeySet.class);
+    }
+
+    private AccessToken accessToken(String audience, int expiresIn) {
+        AccessToken token = new AccessToken();
+        token.type(TokenUtil.TOKEN_TYPE_BEARER);
+        token.issuer(REALM_URL);
+        token.audience(audience);
+        token.issuedFor("nexus3");
+        token.expiration(Time.currentTime() + expiresIn);
+        token.setPreferredUsername("u1");
+        return token;
+    }
+
+    private String sign(String kid, AccessToken token) {
+        return new JWSBuilder().kid(kid).jsonContent(token).rsa256(this.keyPair.getPrivate());
+    }
+}
@@ -8,11 +8,16 @@ import org.sonatype.nexus.security.user.User;
 import org.sonatype.nexus.security.user.UserNotFoundException;
 import org.sonatype.nexus.security.user.UserSearchCriteria;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class KeycloakUserManagerTest {
@@ -41,6 +46,23 @@ public class KeycloakUserManagerTest {
         Assert.assertEquals(2, this.m.listUsers().size());
     }
 
+    @Test
+    public void testListUsersWithLazyRoles() {
+        when(this.mockedClient.findUsers()).thenReturn(mockedUsers());
+        when(this.mockedClient.findRoleIdsOfAllUsers()).thenReturn(Collections.singletonMap("1",
+                                                                                            Collections.singleton("r1")));
+
+        Set<User> users = this.m.listUsers();
+        verify(this.mockedClient, never()).findRoleIdsOfAllUsers();
+
+        for (User user : users) {
+            Assert.assertEquals("1".equals(user.getUserId()) ? 1 : 0, user.getRoles().size());
+        }
+        // The roles of all users are loaded together only once
+        verify(this.mockedClient, times(1)).findRoleIdsOfAllUsers();
+        verify(this.mockedClient, never()).findRoleIdsByUserId(anyString());
+    }
+
     private Set<User> mockedUsers() {
         Set<User> u = new HashSet<>();
         User u1 = new User();
@@ -0,0 +1,316 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.ExpiringCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.RefreshingSnapshot;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.UserCache;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mapper.KeycloakMapper;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror.KeycloakDirectory;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror.KeycloakDirectorySynchronizer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.representations.idm.AdminEventRepresentation;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.sonatype.nexus.security.role.Role;
+import org.sonatype.nexus.security.user.User;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NexusKeycloakClientTest {
+    private KeycloakAdminClient mockedAdminClient;
+    private KeycloakDirectorySynchronizer mockedSynchronizer;
+    private KeycloakChangeListener mockedListener;
+    private NexusKeycloakClient client;
+
+    @Before
+    public void before() {
+        AdapterConfig config = new AdapterConfig();
+        config.setResource("nexus3");
+
+        this.mockedAdminClient = mock(KeycloakAdminClient.class);
+        when(this.mockedAdminClient.getConfig()).thenReturn(config);
+
+        Map<String, UserRepresentation> users = new LinkedHashMap<>();
+        users.put("alice", user("alice"));
+        Map<String, Set<String>> roleIds = new HashMap<>();
+        roleIds.put("alice", Collections.singleton("developer"));
+        KeycloakDirectory directory = new KeycloakDirectory(users,
+                                                            Collections.emptyMap(),
+                                                            roleIds,
+                                                            Collections.emptyMap(),
+                                                            System.currentTimeMillis(),
+                                                            0);
+
+        this.mockedSynchronizer = mock(KeycloakDirectorySynchronizer.class);
+        when(this.mockedSynchronizer.getDirectory()).thenReturn(directory);
+
+        this.client = new NexusKeycloakClient("Keycloak", null, this.mockedAdminClient, this.mockedSynchronizer);
+
+        this.mockedListener = mock(KeycloakChangeListener.class);
+        this.client.addChangeListener(this.mockedListener);
+    }
+
+    @Test
+    public void testFindMirroredUser() {
+        Assert.assertEquals(Collections.singleton("developer"), this.client.findRoleIdsByUserId("alice"));
+        Assert.assertEquals("alice", this.client.findUserByUserId("alice").getUserId());
+
+        verify(this.mockedAdminClient, never()).getUser(anyString());
+    }
+
+    @Test
+    public void testFindServiceAccountNotMirrored() {
+        String username = "service-account-ci";
+        RoleRepresentation role = new RoleRepresentation("deployer", null, false);
+        role.setClientRole(false);
+
+        List<RoleRepresentation> roles = Collections.singletonList(role);
+
+        when(this.mockedAdminClient.getUser(username)).thenReturn(user(username));
+        when(this.mockedAdminClient.getRealmRolesOfUser(any(UserRepresentation.class))).thenReturn(roles);
+
+        User user = this.client.findUserByUserId(username);
+        Assert.assertNotNull(user);
+        Assert.assertEquals("ci", user.getFirstName());
+
+        Set<String> roleIds = this.client.findRoleIdsByUserId(username);
+        Assert.assertTrue(roleIds.toString(), roleIds.stream().anyMatch((roleId) -> roleId.contains("deployer")));
+    }
+
+    @Test
+    public void testFindUserCreatedAfterSync() {
+        when(this.mockedAdminClient.getUser("bob")).thenReturn(user("bob"));
+
+        Assert.assertEquals("bob", this.client.findUserByUserId("bob").getUserId());
+        verify(this.mockedAdminClient).getUser("bob");
+    }
+
+    @Test
+    public void testFindRoleIdsOfSearchedUsers() {
+        KeycloakDirectorySynchronizer mockedSynchronizer = mock(KeycloakDirectorySynchronizer.class);
+        NexusKeycloakClient client = new NexusKeycloakClient("Keycloak", null, this.mockedAdminClient,
+                                                             mockedSynchronizer);
+        RoleRepresentation role = new RoleRepresentation("developer", null, false);
+        role.setClientRole(false);
+
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String username = "user-" + i;
+
+            userIds.add(username);
+            when(this.mockedAdminClient.getUser(username)).thenReturn(user(username));
+        }
+        when(this.mockedAdminClient.getRealmRolesOfUser(any(UserRepresentation.class)))
+                .thenReturn(Collections.singletonList(role));
+
+        Map<String, Set<String>> roleIds = client.findRoleIdsOfUsers(userIds);
+        Assert.assertEquals(60, roleIds.size());
+        Assert.assertTrue(roleIds.get("user-0").stream().anyMatch((roleId) -> roleId.contains("developer")));
+
+        // Never fall back to the bulk lookup of all users
+        verify(this.mockedAdminClient, never()).iterateUsers();
+        verify(this.mockedAdminClient, never()).getRealmRoles();
+    }
+
+    @Test
+    public void testFindRoleIdsByClaims() {
+        NexusKeycloakClient client = claimsBasedClient();
+        AccessToken accessToken = new AccessToken();
+        accessToken.exp(System.currentTimeMillis() / 1000 + 300);
+        accessToken.setRealmAccess(new AccessToken.Access().addRole("developer"));
+
+        AccessTokenResponse response = new AccessTokenResponse();
+        response.setToken(new JWSBuilder().jsonContent(accessToken).none());
+        when(this.mockedAdminClient.obtainAccessToken("bob", "secret")).thenReturn(response);
+
+        Assert.assertTrue(client.authenticate(new UsernamePasswordToken("bob", "secret")));
+
+        Set<String> roleIds = client.findRoleIdsByUserId("bob");
+        Assert.assertTrue(roleIds.toString(), roleIds.stream().anyMatch((roleId) -> roleId.contains("developer")));
+        verify(this.mockedAdminClient, never()).getUser("bob");
+    }
+
+    @Test
+    public void testFindRoleIdsWithoutClaims() {
+        NexusKeycloakClient client = claimsBasedClient();
+        RoleRepresentation role = new RoleRepresentation("deployer", null, false);
+        role.setClientRole(false);
+
+        when(this.mockedAdminClient.getUser("bob")).thenReturn(user("bob"));
+        when(this.mockedAdminClient.getRealmRolesOfUser(any(UserRepresentation.class)))
+                .thenReturn(Collections.singletonList(role));
+
+        // The user isn't authenticated by the password, so its roles are requested from Keycloak
+        Set<String> roleIds = client.findRoleIdsByUserId("bob");
+        Assert.assertTrue(roleIds.toString(), roleIds.stream().anyMatch((roleId) -> roleId.contains("deployer")));
+        verify(this.mockedAdminClient).getUser("bob");
+
+        // The roles of the expired token aren't used
+        AccessToken accessToken = new AccessToken();
+        accessToken.exp(System.currentTimeMillis() / 1000 - 1);
+        accessToken.setRealmAccess(new AccessToken.Access().addRole("developer"));
+
+        AccessTokenResponse response = new AccessTokenResponse();
+        response.setToken(new JWSBuilder().jsonContent(accessToken).none());
+        when(this.mockedAdminClient.obtainAccessToken("bob", "secret")).thenReturn(response);
+
+        Assert.assertTrue(client.authenticate(new UsernamePasswordToken("bob", "secret")));
+        roleIds = client.findRoleIdsByUserId("bob");
+        Assert.assertFalse(roleIds.toString(), roleIds.stream().anyMatch((roleId) -> roleId.contains("developer")));
+        verify(this.mockedAdminClient, times(2)).getUser("bob");
+    }
+
+    @Test
+    public void testFindRoleInCatalog() {
+        RoleRepresentation admin = new RoleRepresentation("admin", null, false);
+        admin.setClientRole(true);
+        RoleRepresentation developer = new RoleRepresentation("developer", null, false);
+        developer.setClientRole(false);
+
+        NexusKeycloakClient client = catalogClient(null, admin, developer);
+        Assert.assertEquals("ClientRole:admin", client.findRoleByRoleId("ClientRole:admin").getRoleId());
+        Assert.assertEquals("RealmRole:developer", client.findRoleByRoleId("RealmRole:developer").getRoleId());
+        // The role id without type is compatible with the client role
+        Assert.assertEquals("ClientRole:admin", client.findRoleByRoleId("admin").getRoleId());
+        Assert.assertNull(client.findRoleByRoleId("developer"));
+        Assert.assertNull(client.findRoleByRoleId("unknown"));
+        Assert.assertEquals(2, client.findRoles().size());
+
+        // The role ids always have the type with the source code
+        client = catalogClient("kc0", admin, developer);
+        Assert.assertEquals("ClientRole:kc0:admin", client.findRoleByRoleId("ClientRole:kc0:admin").getRoleId());
+        Assert.assertNull(client.findRoleByRoleId("admin"));
+
+        verify(this.mockedAdminClient, never()).getRealmClientRoleByRoleName(anyString(), anyString());
+        verify(this.mockedAdminClient, never()).getRealmRoleByRoleName(anyString());
+    }
+
+    @Test
+    public void testOnUserEvent() {
+        UserRepresentation alice = user("alice");
+        UserCache mockedUserCache = mock(UserCache.class);
+
+        when(this.mockedAdminClient.getUserCache()).thenReturn(mockedUserCache);
+        when(mockedUserCache.findById("alice-id")).thenReturn(alice);
+
+        this.client.onAdminEvent(event("USER", "users/alice-id"));
+        this.client.onAdminEvent(event("GROUP_MEMBERSHIP", "users/alice-id/groups/group-id"));
+        this.client.onAdminEvent(event("REALM_ROLE_MAPPING", "users/alice-id/role-mappings/realm"));
+        this.client.onAdminEvent(event("CLIENT_ROLE_MAPPING", "users/alice-id/role-mappings/clients/client-id"));
+
+        verify(mockedUserCache, times(4)).invalidate("alice");
+        verify(this.mockedListener, times(4)).onUserChanged(alice);
+        verify(this.mockedListener, never()).onAllUsersChanged();
+        verify(this.mockedSynchronizer, times(4)).requestSync();
+    }
+
+    @Test
+    public void testOnDeletedUserEvent() {
+        when(this.mockedAdminClient.getUserCache()).thenReturn(mock(UserCache.class));
+
+        this.client.onAdminEvent(event("USER", "users/deleted-id"));
+
+        verify(this.mockedAdminClient).getUserById("deleted-id");
+        verify(this.mockedListener, never()).onUserChanged(any(UserRepresentation.class));
+        verify(this.mockedListener).onAllUsersChanged();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnRolesEvent() {
+        RefreshingSnapshot<Map<String, GroupRepresentation>> mockedGroupIndex = mock(RefreshingSnapshot.class);
+        when(this.mockedAdminClient.getRealmGroupIndex()).thenReturn(mockedGroupIndex);
+
+        // The role-mappings of a group
+        this.client.onAdminEvent(event("REALM_ROLE_MAPPING", "groups/group-id/role-mappings/realm"));
+        this.client.onAdminEvent(event("GROUP", "groups/group-id"));
+        this.client.onAdminEvent(event("REALM_ROLE", "roles/developer"));
+        this.client.onAdminEvent(event("CLIENT_ROLE", "clients/client-id/roles/deployer"));
+
+        verify(mockedGroupIndex).refresh();
+        verify(this.mockedListener, times(4)).onAllUsersChanged();
+        verify(this.mockedListener, never()).onUserChanged(any(UserRepresentation.class));
+        verify(this.mockedAdminClient, never()).getUserCache();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnOtherEvent() {
+        ExpiringCache<String, ClientRepresentation> mockedClientCache = mock(ExpiringCache.class);
+        when(this.mockedAdminClient.getRealmClientCache()).thenReturn(mockedClientCache);
+
+        this.client.onAdminEvent(event("CLIENT", "clients/client-id"));
+        this.client.onAdminEvent(event("REALM", null));
+        this.client.onAdminEvent(event(null, "users/alice-id"));
+
+        verify(mockedClientCache).invalidateAll();
+        verify(this.mockedListener, never()).onAllUsersChanged();
+        verify(this.mockedListener, never()).onUserChanged(any(UserRepresentation.class));
+    }
+
+    private NexusKeycloakClient catalogClient(String sourceCode, RoleRepresentation... roles) {
+        Map<String, Role> catalog = new LinkedHashMap<>();
+        for (RoleRepresentation role : roles) {
+            Role mapped = KeycloakMapper.toRole("Keycloak", sourceCode, role);
+            catalog.put(mapped.getRoleId(), mapped);
+        }
+
+        KeycloakDirectory directory = new KeycloakDirectory(Collections.emptyMap(),
+                                                            Collections.emptyMap(),
+                                                            Collections.emptyMap(),
+                                                            catalog,
+                                                            System.currentTimeMillis(),
+                                                            0);
+        KeycloakDirectorySynchronizer mockedSynchronizer = mock(KeycloakDirectorySynchronizer.class);
+        when(mockedSynchronizer.getDirectory()).thenReturn(directory);
+
+        return new NexusKeycloakClient("Keycloak", sourceCode, this.mockedAdminClient, mockedSynchronizer);
+    }
+
+    private NexusKeycloakClient claimsBasedClient() {
+        KeycloakPluginConfig pluginConfig = new KeycloakPluginConfig();
+        pluginConfig.setClaimsBasedAuthorization(true);
+        when(this.mockedAdminClient.getPluginConfig()).thenReturn(pluginConfig);
+
+        return new NexusKeycloakClient("Keycloak", null, this.mockedAdminClient,
+                                       mock(KeycloakDirectorySynchronizer.class));
+    }
+
+    private static AdminEventRepresentation event(String type, String path) {
+        AdminEventRepresentation event = new AdminEventRepresentation();
+        event.setOperationType("UPDATE");
+        event.setResourceType(type);
+        event.setResourcePath(path);
+        return event;
+    }
+
+    private static UserRepresentation user(String username) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(username + "-id");
+        user.setUsername(username);
+        user.setEnabled(true);
+        return user;
+    }
+}
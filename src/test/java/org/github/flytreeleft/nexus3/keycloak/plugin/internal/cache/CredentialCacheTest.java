@@ -0,0 +1,46 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CredentialCacheTest {
+    private CredentialCache cache;
+
+    @Before
+    public void before() {
+        this.cache = new CredentialCache(60, 10);
+    }
+
+    @Test
+    public void testVerify() {
+        Assert.assertFalse(this.cache.verify("u1", "p1"));
+
+        this.cache.put("u1", "p1");
+        Assert.assertTrue(this.cache.verify("u1", "p1"));
+        Assert.assertFalse(this.cache.verify("u1", "p2"));
+        Assert.assertFalse(this.cache.verify("u2", "p1"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        this.cache.put("u1", "p1");
+        this.cache.put("u2", "p2");
+
+        this.cache.invalidate("u1");
+        Assert.assertFalse(this.cache.verify("u1", "p1"));
+        Assert.assertTrue(this.cache.verify("u2", "p2"));
+
+        this.cache.invalidateAll();
+        Assert.assertFalse(this.cache.verify("u2", "p2"));
+    }
+
+    @Test
+    public void testDisabled() {
+        CredentialCache disabled = new CredentialCache(0, 10);
+
+        disabled.put("u1", "p1");
+        Assert.assertFalse(disabled.isEnabled());
+        Assert.assertFalse(disabled.verify("u1", "p1"));
+    }
+}
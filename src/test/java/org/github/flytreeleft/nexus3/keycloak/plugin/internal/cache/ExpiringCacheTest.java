@@ -0,0 +1,44 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void testGet() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(60, 10);
+
+        Assert.assertNull(cache.get("k1"));
+        cache.put("k1", "v1");
+        Assert.assertEquals("v1", cache.get("k1"));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiration() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(60, 10);
+
+        cache.put("k1", "v1", System.currentTimeMillis() - 1);
+        Assert.assertNull(cache.get("k1"));
+
+        cache.put("k2", "v2", System.currentTimeMillis() + 60000);
+        Assert.assertEquals("v2", cache.get("k2"));
+    }
+
+    @Test
+    public void testMaxSize() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(60, 2);
+
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+        cache.get("k1");
+        cache.put("k3", "v3");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals("v1", cache.get("k1"));
+        Assert.assertNull(cache.get("k2"));
+    }
+}
@@ -0,0 +1,79 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefreshAheadCacheTest {
+    private AtomicInteger loads;
+    private List<Runnable> refreshes;
+    private RefreshAheadCache<String, String> cache;
+
+    @Before
+    public void before() {
+        this.loads = new AtomicInteger();
+        this.refreshes = new ArrayList<>();
+        this.cache = new RefreshAheadCache<>(1, 60, 10, 2, (key) -> {
+            return key + "-" + this.loads.incrementAndGet();
+        }, this.refreshes::add, null);
+    }
+
+    @Test
+    public void testRefreshHotEntry() throws InterruptedException {
+        Assert.assertEquals("hot-1", this.cache.get("hot"));
+        Assert.assertEquals("hot-1", this.cache.get("hot"));
+        Assert.assertEquals("hot-1", this.cache.get("hot"));
+        Assert.assertEquals("cold-2", this.cache.get("cold"));
+        Assert.assertEquals(2, this.loads.get());
+
+        Thread.sleep(1100);
+
+        // The stale hot entry is returned immediately, and is refreshed only once in the background
+        Assert.assertEquals("hot-1", this.cache.get("hot"));
+        Assert.assertEquals("hot-1", this.cache.get("hot"));
+        Assert.assertEquals(1, this.refreshes.size());
+
+        this.refreshes.get(0).run();
+        Assert.assertEquals("hot-3", this.cache.get("hot"));
+
+        // The stale cold entry is reloaded in the caller thread
+        Assert.assertEquals("cold-4", this.cache.get("cold"));
+        Assert.assertEquals(1, this.refreshes.size());
+    }
+
+    @Test
+    public void testRefreshInvalidatedEntry() throws InterruptedException {
+        this.cache.get("k");
+        this.cache.get("k");
+        this.cache.get("k");
+        Thread.sleep(1100);
+        this.cache.get("k");
+
+        // The invalidated entry should not be put back by the refreshing
+        this.cache.invalidate("k");
+        this.refreshes.get(0).run();
+        Assert.assertNull(this.cache.getIfPresent("k"));
+    }
+
+    @Test
+    public void testLoadInvalidatedEntry() {
+        this.cache = new RefreshAheadCache<>(1, 60, 10, 2, (key) -> {
+            // The entry is invalidated while it's being loaded
+            if (this.loads.incrementAndGet() == 1) {
+                this.cache.invalidate(key);
+            }
+            return key + "-" + this.loads.get();
+        }, this.refreshes::add, null);
+
+        // The loaded value is returned, but it should not be cached
+        Assert.assertEquals("k-1", this.cache.get("k"));
+        Assert.assertNull(this.cache.getIfPresent("k"));
+
+        Assert.assertEquals("k-2", this.cache.get("k"));
+        Assert.assertEquals("k-2", this.cache.getIfPresent("k"));
+    }
+}
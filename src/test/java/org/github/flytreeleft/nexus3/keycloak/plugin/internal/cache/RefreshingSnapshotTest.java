@@ -0,0 +1,108 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RefreshingSnapshotTest {
+    private ScheduledExecutorService mockedScheduler;
+    private ScheduledFuture<?> mockedRefreshing;
+
+    @Before
+    public void before() {
+        this.mockedScheduler = mock(ScheduledExecutorService.class);
+        this.mockedRefreshing = mock(ScheduledFuture.class);
+
+        doReturn(this.mockedRefreshing).when(this.mockedScheduler)
+                                       .scheduleWithFixedDelay(any(Runnable.class),
+                                                               anyLong(),
+                                                               anyLong(),
+                                                               any(TimeUnit.class));
+    }
+
+    @Test
+    public void testLoadOnFirstAccess() {
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingSnapshot<String> snapshot = new RefreshingSnapshot<>("test",
+                                                                       () -> "v" + loads.incrementAndGet(),
+                                                                       60,
+                                                                       this.mockedScheduler);
+        verify(this.mockedScheduler, never()).scheduleWithFixedDelay(any(Runnable.class),
+                                                                     anyLong(),
+                                                                     anyLong(),
+                                                                     any(TimeUnit.class));
+
+        Assert.assertEquals("v1", snapshot.get());
+        Assert.assertEquals("v1", snapshot.get());
+        Assert.assertEquals(1, loads.get());
+        verify(this.mockedScheduler, times(1)).scheduleWithFixedDelay(any(Runnable.class),
+                                                                      eq(60L),
+                                                                      eq(60L),
+                                                                      eq(TimeUnit.SECONDS));
+
+        snapshot.refresh();
+        Assert.assertEquals("v2", snapshot.get());
+
+        snapshot.stop();
+        verify(this.mockedRefreshing).cancel(false);
+    }
+
+    @Test
+    public void testKeepOldSnapshotOnFailure() {
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingSnapshot<String> snapshot = new RefreshingSnapshot<>("test", () -> {
+            int load = loads.incrementAndGet();
+            if (load == 2) {
+                throw new IllegalStateException("Keycloak is down");
+            }
+            return load == 3 ? null : "v" + load;
+        }, 60, this.mockedScheduler);
+
+        Assert.assertEquals("v1", snapshot.get());
+
+        // The failed refreshing keeps the old snapshot
+        snapshot.refresh();
+        Assert.assertEquals("v1", snapshot.get());
+
+        // Nothing is loaded, keep the old snapshot too
+        snapshot.refresh();
+        Assert.assertEquals("v1", snapshot.get());
+
+        snapshot.refresh();
+        Assert.assertEquals("v4", snapshot.get());
+    }
+
+    @Test
+    public void testRetryFailedFirstLoading() {
+        AtomicInteger loads = new AtomicInteger();
+        RefreshingSnapshot<String> snapshot = new RefreshingSnapshot<>("test", () -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("Keycloak is down");
+            }
+            return "v" + loads.get();
+        }, 60, this.mockedScheduler);
+
+        try {
+            snapshot.get();
+            Assert.fail("The failure of the first loading should be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Keycloak is down", e.getMessage());
+        }
+
+        Assert.assertEquals("v2", snapshot.get());
+    }
+}
@@ -0,0 +1,108 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testShareInFlightCall() throws Exception {
+        SingleFlight<String, String> calls = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Future<String> leader = executor.submit(() -> calls.execute("alice", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(finished);
+                return "roles of alice";
+            }));
+            started.await();
+
+            List<Future<String>> followers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                followers.add(executor.submit(() -> calls.execute("alice", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            // Make sure the followers are waiting for the in-flight call
+            Thread.sleep(100);
+            finished.countDown();
+
+            Assert.assertEquals("roles of alice", leader.get(10, TimeUnit.SECONDS));
+            for (Future<String> follower : followers) {
+                Assert.assertEquals("roles of alice", follower.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, loads.get());
+
+            // The result isn't kept after the call is finished
+            Assert.assertEquals("new", calls.execute("alice", () -> "new"));
+        } finally {
+            finished.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShareFailure() throws Exception {
+        SingleFlight<String, String> calls = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<String> leader = executor.submit(() -> calls.execute("alice", () -> {
+                started.countDown();
+                await(finished);
+                throw new IllegalStateException("Keycloak is down");
+            }));
+            started.await();
+
+            Future<String> follower = executor.submit(() -> calls.execute("alice", () -> "other"));
+            Thread.sleep(100);
+            finished.countDown();
+
+            for (Future<String> call : Arrays.asList(leader, follower)) {
+                try {
+                    call.get(10, TimeUnit.SECONDS);
+                    Assert.fail("The failure should be shared");
+                } catch (ExecutionException e) {
+                    Assert.assertEquals("Keycloak is down", e.getCause().getMessage());
+                }
+            }
+        } finally {
+            finished.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDifferentKeys() {
+        SingleFlight<String, String> calls = new SingleFlight<>();
+
+        Assert.assertEquals("bob", calls.execute("alice", () -> calls.execute("bob", () -> "bob")));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
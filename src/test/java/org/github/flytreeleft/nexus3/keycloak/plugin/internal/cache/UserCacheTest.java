@@ -0,0 +1,70 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.representations.idm.UserRepresentation;
+
+public class UserCacheTest {
+    private Map<String, UserRepresentation> users;
+    private AtomicInteger loads;
+    private UserCache cache;
+
+    @Before
+    public void before() {
+        this.users = new HashMap<>();
+        this.users.put("u1", user("u1", "u1@example.com"));
+        this.users.put("u1@example.com", this.users.get("u1"));
+
+        this.loads = new AtomicInteger();
+        this.cache = new UserCache(60, 30, 10, 2, (key) -> {
+            this.loads.incrementAndGet();
+            return this.users.get(key);
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Test
+    public void testGetByUsername() {
+        Assert.assertEquals("u1", this.cache.getByUsername("u1").getUsername());
+        Assert.assertEquals("u1", this.cache.getByUsername("u1").getUsername());
+        Assert.assertEquals(1, this.loads.get());
+
+        // The missing user should not be cached
+        Assert.assertNull(this.cache.getByUsername("u2"));
+        Assert.assertNull(this.cache.getByUsername("u2"));
+        Assert.assertEquals(3, this.loads.get());
+    }
+
+    @Test
+    public void testGetByEmail() {
+        this.cache.getByUsername("u1");
+
+        Assert.assertEquals("u1", this.cache.getByEmail("u1@example.com").getUsername());
+        Assert.assertEquals(1, this.loads.get());
+    }
+
+    @Test
+    public void testGetByChangedEmail() {
+        this.cache.getByUsername("u1");
+        this.cache.invalidate("u1");
+
+        // The email of u1 is changed, and u2 registers with the old email of u1
+        this.users.put("u1", user("u1", "new@example.com"));
+        this.users.put("u1@example.com", user("u2", "u1@example.com"));
+
+        Assert.assertEquals("new@example.com", this.cache.getByUsername("u1").getEmail());
+        Assert.assertEquals("u2", this.cache.getByEmail("u1@example.com").getUsername());
+    }
+
+    private UserRepresentation user(String username, String email) {
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(username);
+        user.setEmail(email);
+        return user;
+    }
+}
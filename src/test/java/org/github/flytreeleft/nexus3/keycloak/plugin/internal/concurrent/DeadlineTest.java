@@ -0,0 +1,114 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.cache.SingleFlight;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeadlineTest {
+
+    @Test
+    public void testNestedDeadline() {
+        Assert.assertNull(Deadline.current());
+
+        try (Deadline outer = Deadline.start("outer", 10)) {
+            Assert.assertSame(outer, Deadline.current());
+
+            // The nested deadline can not extend the outer one
+            try (Deadline inner = Deadline.start("inner", 60)) {
+                Assert.assertTrue(inner.remaining() <= TimeUnit.SECONDS.toNanos(10));
+            }
+            try (Deadline inner = Deadline.start("inner", 0)) {
+                Assert.assertTrue(inner.remaining() <= TimeUnit.SECONDS.toNanos(10));
+            }
+            Assert.assertSame(outer, Deadline.current());
+        }
+        Assert.assertNull(Deadline.current());
+
+        try (Deadline unlimited = Deadline.start("unlimited", 0)) {
+            Assert.assertNull(Deadline.current());
+            Assert.assertFalse(unlimited.isExpired());
+        }
+        Assert.assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testLimitRequestConfig() {
+        RequestConfig config = RequestConfig.custom()
+                                            .setConnectTimeout(1000)
+                                            .setSocketTimeout(60000)
+                                            .setConnectionRequestTimeout(-1)
+                                            .build();
+
+        try (Deadline deadline = Deadline.start("request", 5)) {
+            RequestConfig limited = deadline.limit(config);
+
+            Assert.assertEquals(1000, limited.getConnectTimeout());
+            Assert.assertTrue(limited.getSocketTimeout() > 0 && limited.getSocketTimeout() <= 5000);
+            Assert.assertTrue(limited.getConnectionRequestTimeout() > 0
+                              && limited.getConnectionRequestTimeout() <= 5000);
+        }
+    }
+
+    @Test
+    public void testPropagateToLookup() {
+        LookupExecutor executor = new LookupExecutor("test-lookup", 1, 0);
+
+        try (Deadline deadline = Deadline.start("lookup", 10)) {
+            Future<Deadline> lookup = executor.submit(Deadline::current);
+
+            Assert.assertSame(deadline, executor.get(lookup, executor.newDeadline()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testExceededLookup() throws Exception {
+        LookupExecutor executor = new LookupExecutor("test-lookup", 1, 10);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        try (Deadline deadline = Deadline.start("lookup", 1)) {
+            Future<Object> lookup = executor.submit(() -> latch.await(10, TimeUnit.SECONDS));
+
+            executor.get(lookup, executor.newDeadline());
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testExceededInFlightCall() throws Exception {
+        SingleFlight<String, String> calls = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+
+        Thread leader = new Thread(() -> calls.execute("key", () -> {
+            started.countDown();
+            await(finished);
+            return "value";
+        }));
+        leader.start();
+        started.await();
+
+        try (Deadline deadline = Deadline.start("call", 1)) {
+            calls.execute("key", () -> "other");
+        } finally {
+            finished.countDown();
+            leader.join();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
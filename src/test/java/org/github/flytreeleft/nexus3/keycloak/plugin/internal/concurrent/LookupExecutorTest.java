@@ -0,0 +1,110 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LookupExecutorTest {
+
+    @Test
+    public void testRunLookupsConcurrently() {
+        LookupExecutor executor = new LookupExecutor("test-lookup", 3, 10);
+        // Every lookup waits for the others, so they can only be finished when they are run concurrently
+        CountDownLatch latch = new CountDownLatch(3);
+
+        try {
+            long deadline = executor.newDeadline();
+            List<Future<String>> lookups = new ArrayList<>();
+            for (String name : new String[] { "client-roles", "realm-roles", "groups" }) {
+                lookups.add(executor.submit(() -> {
+                    latch.countDown();
+                    latch.await(10, TimeUnit.SECONDS);
+                    return name + " of " + Thread.currentThread().getName();
+                }));
+            }
+
+            for (Future<String> lookup : lookups) {
+                Assert.assertTrue(executor.get(lookup, deadline).contains("test-lookup-"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunLookupsInCallerThread() {
+        LookupExecutor executor = new LookupExecutor("test-lookup", 0, 10);
+        String caller = Thread.currentThread().getName();
+
+        Future<String> lookup = executor.submit(() -> Thread.currentThread().getName());
+        Assert.assertTrue(lookup.isDone());
+        Assert.assertEquals(caller, executor.get(lookup, executor.newDeadline()));
+    }
+
+    @Test
+    public void testRunInCallerThreadWhenFull() {
+        // One thread and at most 16 waiting lookups
+        LookupExecutor executor = new LookupExecutor("test-lookup", 1, 10);
+        CountDownLatch finished = new CountDownLatch(1);
+        String caller = Thread.currentThread().getName();
+
+        try {
+            List<Future<Object>> blocked = new ArrayList<>();
+            for (int i = 0; i < 17; i++) {
+                blocked.add(executor.submit(() -> finished.await(10, TimeUnit.SECONDS)));
+            }
+
+            Future<String> lookup = executor.submit(() -> Thread.currentThread().getName());
+            Assert.assertEquals(caller, executor.get(lookup, executor.newDeadline()));
+
+            finished.countDown();
+            for (Future<Object> task : blocked) {
+                Assert.assertEquals(true, executor.get(task, executor.newDeadline()));
+            }
+        } finally {
+            finished.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedLookup() {
+        LookupExecutor executor = new LookupExecutor("test-lookup", 2, 10);
+
+        try {
+            Future<Object> lookup = executor.submit(() -> {
+                throw new IllegalArgumentException("Not found");
+            });
+
+            executor.get(lookup, executor.newDeadline());
+            Assert.fail("The failure of the lookup should be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Not found", e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeoutLookup() {
+        LookupExecutor executor = new LookupExecutor("test-lookup", 1, 1);
+        CountDownLatch finished = new CountDownLatch(1);
+
+        try {
+            Future<Object> lookup = executor.submit(() -> finished.await(10, TimeUnit.SECONDS));
+
+            executor.get(lookup, executor.newDeadline());
+            Assert.fail("The lookup should be timeout");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("1 seconds"));
+        } finally {
+            finished.countDown();
+            executor.shutdown();
+        }
+    }
+}
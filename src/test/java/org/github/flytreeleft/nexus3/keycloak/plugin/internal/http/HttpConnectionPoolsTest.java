@@ -0,0 +1,90 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.http;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakPluginConfig;
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+
+public class HttpConnectionPoolsTest {
+
+    @Test
+    public void testSharedPoolOfAuthServer() {
+        KeycloakPluginConfig pluginConfig = new KeycloakPluginConfig();
+        pluginConfig.setHttpPoolMaxTotal(20);
+        pluginConfig.setHttpPoolMaxPerRoute(10);
+
+        PoolingHttpClientConnectionManager pool = HttpConnectionPools.acquire(config("http://pool-a:8080/auth"),
+                                                                              pluginConfig);
+        Assert.assertEquals(20, pool.getMaxTotal());
+        Assert.assertEquals(10, pool.getDefaultMaxPerRoute());
+
+        KeycloakPluginConfig samePluginConfig = new KeycloakPluginConfig();
+        samePluginConfig.setHttpPoolMaxTotal(20);
+        samePluginConfig.setHttpPoolMaxPerRoute(10);
+        Assert.assertSame(pool, HttpConnectionPools.acquire(config("http://pool-a:8080/auth"), samePluginConfig));
+
+        PoolingHttpClientConnectionManager other = HttpConnectionPools.acquire(config("http://pool-b:8080/auth"),
+                                                                               new KeycloakPluginConfig());
+        Assert.assertNotSame(pool, other);
+
+        Gauge<?> max = gauge("keycloak.http.pool.pool-a:8080.max");
+        Assert.assertEquals(20, max.getValue());
+
+        HttpConnectionPools.release(pool);
+        HttpConnectionPools.release(pool);
+        HttpConnectionPools.release(other);
+    }
+
+    @Test
+    public void testDifferentOptionsOfSharedPool() {
+        KeycloakPluginConfig pluginConfig = new KeycloakPluginConfig();
+        pluginConfig.setHttpPoolMaxTotal(20);
+
+        PoolingHttpClientConnectionManager pool = HttpConnectionPools.acquire(config("http://pool-c:8080/auth"),
+                                                                              pluginConfig);
+
+        // The different options are ignored with a warning, and the pool is still shared
+        KeycloakPluginConfig otherPluginConfig = new KeycloakPluginConfig();
+        otherPluginConfig.setHttpPoolMaxTotal(100);
+        Assert.assertSame(pool, HttpConnectionPools.acquire(config("http://pool-c:8080/auth"), otherPluginConfig));
+        Assert.assertEquals(20, pool.getMaxTotal());
+
+        HttpConnectionPools.release(pool);
+        HttpConnectionPools.release(pool);
+    }
+
+    @Test
+    public void testReleaseSharedPool() {
+        PoolingHttpClientConnectionManager pool = HttpConnectionPools.acquire(config("http://pool-d:8080/auth"),
+                                                                              new KeycloakPluginConfig());
+        Assert.assertSame(pool,
+                          HttpConnectionPools.acquire(config("http://pool-d:8080/auth"), new KeycloakPluginConfig()));
+
+        // The pool is still used by the other one
+        HttpConnectionPools.release(pool);
+        Assert.assertNotNull(gauge("keycloak.http.pool.pool-d:8080.max"));
+
+        HttpConnectionPools.release(pool);
+        Assert.assertNull(gauge("keycloak.http.pool.pool-d:8080.max"));
+
+        // A new pool is created after the old one is shut down
+        PoolingHttpClientConnectionManager newPool = HttpConnectionPools.acquire(config("http://pool-d:8080/auth"),
+                                                                                 new KeycloakPluginConfig());
+        Assert.assertNotSame(pool, newPool);
+        HttpConnectionPools.release(newPool);
+    }
+
+    private Gauge<?> gauge(String name) {
+        return SharedMetricRegistries.getOrCreate("nexus").getGauges().get(name);
+    }
+
+    private AdapterConfig config(String authServerUrl) {
+        AdapterConfig config = new AdapterConfig();
+        config.setAuthServerUrl(authServerUrl);
+
+        return config;
+    }
+}
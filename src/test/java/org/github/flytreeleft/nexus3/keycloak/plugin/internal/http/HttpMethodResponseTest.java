@@ -0,0 +1,49 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.http;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.keycloak.representations.idm.UserRepresentation;
+
+public class HttpMethodResponseTest {
+
+    @Test
+    public void testJsonArray() {
+        String json = "[{\"username\": \"u1\", \"unknown\": {\"a\": [1, 2]}}, {\"username\": \"u2\", \"enabled\": true}]";
+        List<UserRepresentation> users = new ArrayList<>();
+
+        int count = HttpMethodResponse.jsonArray(UserRepresentation.class, users::add)
+                                      .process(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(2, count);
+        Assert.assertEquals("u1", users.get(0).getUsername());
+        Assert.assertEquals("u2", users.get(1).getUsername());
+        Assert.assertTrue(users.get(1).isEnabled());
+    }
+
+    @Test
+    public void testJsonEmptyArray() {
+        int count = HttpMethodResponse.jsonArray(UserRepresentation.class, (user) -> Assert.fail())
+                                      .process(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(0, count);
+    }
+
+    @Test
+    public void testJsonArrayField() {
+        String json = "[{\"id\": \"1\", \"attributes\": {\"username\": [\"x\"]}, \"username\": \"u1\"},"
+                      + " {\"username\": \"u2\", \"access\": {\"view\": true}}, {\"username\": null}]";
+        List<String> usernames = new ArrayList<>();
+
+        int count = HttpMethodResponse.jsonArrayField("username", usernames::add)
+                                      .process(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(Arrays.asList("u1", "u2"), usernames);
+    }
+}
@@ -0,0 +1,26 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoleIdsTest {
+
+    @Test
+    public void testFormatRoleId() {
+        Assert.assertEquals(KeycloakMapper.CLIENT_ROLE_PREFIX + ":kc0:admin",
+                            RoleIds.format(KeycloakMapper.CLIENT_ROLE_PREFIX, "kc0", "admin"));
+        Assert.assertEquals(KeycloakMapper.CLIENT_ROLE_PREFIX + ":admin",
+                            RoleIds.format(KeycloakMapper.CLIENT_ROLE_PREFIX, null, "admin"));
+        Assert.assertEquals(KeycloakMapper.REALM_GROUP_PREFIX + ":kc1:/group",
+                            RoleIds.format(KeycloakMapper.REALM_GROUP_PREFIX, "kc1", "/group"));
+    }
+
+    @Test
+    public void testFormatRoleIdWithoutName() {
+        // The same as String.format("%s:%s", type, null)
+        Assert.assertEquals(KeycloakMapper.REALM_ROLE_PREFIX + ":kc0:null",
+                            RoleIds.format(KeycloakMapper.REALM_ROLE_PREFIX, "kc0", null));
+        Assert.assertEquals(KeycloakMapper.REALM_ROLE_PREFIX + ":null",
+                            RoleIds.format(KeycloakMapper.REALM_ROLE_PREFIX, null, null));
+    }
+}
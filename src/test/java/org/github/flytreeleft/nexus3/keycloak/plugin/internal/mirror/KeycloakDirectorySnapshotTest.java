@@ -0,0 +1,91 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.sonatype.nexus.security.role.Role;
+
+public class KeycloakDirectorySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        File file = new File(this.folder.getRoot(), "keycloak.json.directory");
+        KeycloakDirectory directory = directory();
+
+        KeycloakDirectorySnapshot.save(file, directory);
+        KeycloakDirectory loaded = KeycloakDirectorySnapshot.load(file);
+
+        Assert.assertEquals(directory.getSyncedAt(), loaded.getSyncedAt());
+        Assert.assertEquals(directory.getSyncDuration(), loaded.getSyncDuration());
+        Assert.assertEquals(2, loaded.getUserCount());
+        Assert.assertEquals("Alice", loaded.getUserByEmail("alice@example.com").getFirstName());
+        Assert.assertTrue(loaded.getUserByUsername("alice").isEnabled());
+        Assert.assertNull(loaded.getUserByUsername("bob").getEmail());
+        Assert.assertEquals(directory.getRoleIds("alice"), loaded.getRoleIds("alice"));
+        Assert.assertEquals(directory.getRoleIds("bob"), loaded.getRoleIds("bob"));
+        Assert.assertEquals("KeycloakRealmRole:admin", loaded.getRoles().get("KeycloakRealmRole:admin").getName());
+        Assert.assertTrue(loaded.getRoles().get("KeycloakRealmRole:admin").isReadOnly());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadCorrupted() throws IOException {
+        File file = new File(this.folder.getRoot(), "keycloak.json.directory");
+        KeycloakDirectorySnapshot.save(file, directory());
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        KeycloakDirectorySnapshot.load(file);
+    }
+
+    private KeycloakDirectory directory() {
+        Map<String, UserRepresentation> users = new LinkedHashMap<>();
+        users.put("alice", user("u1", "alice", "alice@example.com", "Alice"));
+        users.put("bob", user("u2", "bob", null, null));
+
+        Map<String, Set<String>> roleIds = new HashMap<>();
+        roleIds.put("alice", new LinkedHashSet<>(Arrays.asList("KeycloakRealmRole:admin", "KeycloakClientRole:dev")));
+        roleIds.put("bob", Collections.singleton("KeycloakClientRole:dev"));
+
+        Role role = new Role();
+        role.setRoleId("KeycloakRealmRole:admin");
+        role.setName("KeycloakRealmRole:admin");
+        role.setSource("Keycloak");
+        role.setReadOnly(true);
+
+        return new KeycloakDirectory(users,
+                                     Collections.singletonMap("alice@example.com", "alice"),
+                                     roleIds,
+                                     Collections.singletonMap(role.getRoleId(), role),
+                                     System.currentTimeMillis(),
+                                     42);
+    }
+
+    private UserRepresentation user(String id, String username, String email, String firstName) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setFirstName(firstName);
+        user.setEnabled(true);
+        return user;
+    }
+}
@@ -0,0 +1,154 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakAdminClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.sonatype.nexus.security.role.Role;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KeycloakDirectorySynchronizerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeycloakAdminClient mockedClient;
+    private KeycloakDirectorySynchronizer synchronizer;
+
+    @Before
+    public void before() {
+        AdapterConfig config = new AdapterConfig();
+        config.setResource("nexus3");
+
+        this.mockedClient = mock(KeycloakAdminClient.class);
+        when(this.mockedClient.getConfig()).thenReturn(config);
+
+        this.synchronizer = synchronizer(null);
+    }
+
+    private KeycloakDirectorySynchronizer synchronizer(File snapshotFile) {
+        return new KeycloakDirectorySynchronizer(this.mockedClient,
+                                                 60,
+                                                 0,
+                                                 snapshotFile,
+                                                 new KeycloakDirectorySynchronizer.RoleMapper() {
+            @Override
+            public Set<String> toRoleIds(List<RoleRepresentation> roles, List<GroupRepresentation> groups) {
+                Set<String> ids = roles.stream().map(RoleRepresentation::getName).collect(Collectors.toSet());
+                groups.forEach((group) -> ids.add(group.getPath()));
+                return ids;
+            }
+
+            @Override
+            public Set<Role> toRoles(
+                    List<RoleRepresentation> clientRoles,
+                    List<RoleRepresentation> realmRoles,
+                    List<GroupRepresentation> groups
+            ) {
+                return Collections.emptySet();
+            }
+        });
+    }
+
+    @Test
+    public void testSync() {
+        UserRepresentation alice = user("u1", "alice", "alice@example.com");
+        UserRepresentation bob = user("u2", "bob", null);
+        RoleRepresentation admin = role("admin");
+        RoleRepresentation dev = role("dev");
+        GroupRepresentation group = new GroupRepresentation();
+        group.setId("g1");
+        group.setPath("/team");
+
+        when(this.mockedClient.iterateUsers()).thenReturn(Arrays.asList(alice, bob).iterator());
+        when(this.mockedClient.getRealmRoles()).thenReturn(Collections.singletonList(admin));
+        when(this.mockedClient.getRealmClientRoles("nexus3")).thenReturn(Collections.singletonList(dev));
+        when(this.mockedClient.getRealmGroups()).thenReturn(Collections.singletonList(group));
+        when(this.mockedClient.getUsersOfRealmRole("admin", 0, 100)).thenReturn(Collections.singletonList(alice));
+        when(this.mockedClient.getUsersOfClientRole(eq("nexus3"), eq("dev"), anyInt(), anyInt()))
+                .thenReturn(Collections.singletonList(bob));
+        when(this.mockedClient.getMembersOfGroup(group, 0, 100)).thenReturn(Collections.singletonList(bob));
+
+        Assert.assertNull(this.synchronizer.getDirectory());
+        this.synchronizer.sync();
+
+        KeycloakDirectory directory = this.synchronizer.getDirectory();
+        Assert.assertEquals(2, directory.getUserCount());
+        Assert.assertSame(alice, directory.getUserByEmail("alice@example.com"));
+        Assert.assertNull(directory.getUserByEmail("bob@example.com"));
+        Assert.assertEquals(Collections.singleton("admin"), directory.getRoleIds("alice"));
+        Assert.assertEquals(2, directory.getRoleIds("bob").size());
+        Assert.assertNull(directory.getRoleIds("carol"));
+
+        // Keep the old directory if the synchronizing is failed
+        when(this.mockedClient.getRealmRoles()).thenThrow(new IllegalStateException("unavailable"));
+        this.synchronizer.sync();
+
+        Assert.assertSame(directory, this.synchronizer.getDirectory());
+        Assert.assertTrue(this.synchronizer.getLastFailedAt() > 0);
+    }
+
+    @Test
+    public void testLoadSnapshot() throws IOException {
+        File snapshotFile = this.folder.newFile("keycloak.json.directory");
+        UserRepresentation alice = user("u1", "alice", null);
+        when(this.mockedClient.iterateUsers()).thenReturn(Collections.singletonList(alice).iterator());
+
+        KeycloakDirectorySynchronizer synchronizer = synchronizer(snapshotFile);
+        synchronizer.sync();
+
+        // The snapshot is loaded on starting, not on the request path
+        KeycloakDirectorySynchronizer restarted = synchronizer(snapshotFile);
+        Assert.assertNull(restarted.getDirectory());
+
+        restarted.loadSnapshot();
+        Assert.assertNotNull(restarted.getDirectory().getUserByUsername("alice"));
+
+        // The synchronized directory is never replaced by the older snapshot
+        UserRepresentation bob = user("u2", "bob", null);
+        when(this.mockedClient.iterateUsers()).thenReturn(Collections.singletonList(bob).iterator());
+
+        KeycloakDirectory previous = synchronizer.getDirectory();
+        KeycloakDirectorySnapshot.save(snapshotFile, previous);
+        restarted = synchronizer(snapshotFile);
+        restarted.sync();
+        restarted.loadSnapshot();
+
+        Assert.assertNotNull(restarted.getDirectory().getUserByUsername("bob"));
+        Assert.assertNull(restarted.getDirectory().getUserByUsername("alice"));
+    }
+
+    private UserRepresentation user(String id, String username, String email) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEmail(email);
+        return user;
+    }
+
+    private RoleRepresentation role(String name) {
+        RoleRepresentation role = new RoleRepresentation();
+        role.setId(name);
+        role.setName(name);
+        role.setComposite(false);
+        role.setClientRole(false);
+        return role;
+    }
+}
@@ -0,0 +1,167 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakAdminClient;
+import org.github.flytreeleft.nexus3.keycloak.plugin.internal.KeycloakRoleGraph;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.representations.idm.ClientMappingsRepresentation;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.MappingsRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KeycloakMembershipIndexTest {
+    private KeycloakAdminClient mockedClient;
+
+    @Before
+    public void before() {
+        AdapterConfig config = new AdapterConfig();
+        config.setResource("nexus3");
+
+        this.mockedClient = mock(KeycloakAdminClient.class);
+        when(this.mockedClient.getConfig()).thenReturn(config);
+    }
+
+    @Test
+    public void testCombineMembers() {
+        RoleRepresentation developer = role("developer", false);
+        RoleRepresentation admin = role("admin", true);
+        GroupRepresentation devops = group("g1", "/devops");
+
+        when(this.mockedClient.getRealmRoles()).thenReturn(Collections.singletonList(developer));
+        when(this.mockedClient.getRealmClientRoles("nexus3")).thenReturn(Collections.singletonList(admin));
+        when(this.mockedClient.getRealmGroups()).thenReturn(Collections.singletonList(devops));
+
+        List<UserRepresentation> developers = users("alice", "bob");
+        List<UserRepresentation> admins = users("alice");
+        List<UserRepresentation> members = users("bob", "carol");
+        when(this.mockedClient.getUsersOfRealmRole(eq("developer"), eq(0), anyInt())).thenReturn(developers);
+        when(this.mockedClient.getUsersOfClientRole(eq("nexus3"), eq("admin"), eq(0), anyInt())).thenReturn(admins);
+        when(this.mockedClient.getMembersOfGroup(eq(devops), eq(0), anyInt())).thenReturn(members);
+
+        KeycloakMembershipIndex index = KeycloakMembershipIndex.load(this.mockedClient);
+
+        Assert.assertEquals(Arrays.asList("developer", "admin"), names(index, "alice"));
+        Assert.assertTrue(index.getGroups("alice").isEmpty());
+
+        Assert.assertEquals(Collections.singletonList("developer"), names(index, "bob"));
+        Assert.assertEquals(Collections.singletonList(devops), index.getGroups("bob"));
+
+        Assert.assertNull(index.getRoleMappings("carol").getRealmMappings());
+        Assert.assertEquals(Collections.singletonList(devops), index.getGroups("carol"));
+
+        Assert.assertNull(index.getRoleMappings("dave").getRealmMappings());
+        Assert.assertTrue(index.getGroups("dave").isEmpty());
+    }
+
+    @Test
+    public void testIndexRolesOfOtherClients() {
+        RoleRepresentation admin = role("admin", true);
+        // The composite role of the other client includes the role of the current client
+        RoleRepresentation bundle = role("bundle", true);
+        bundle.setComposite(true);
+
+        when(this.mockedClient.getRealmClients()).thenReturn(Arrays.asList(client("nexus3"), client("other-app")));
+        when(this.mockedClient.getRealmClientRoles("nexus3")).thenReturn(Collections.singletonList(admin));
+        when(this.mockedClient.getRealmClientRoles("other-app")).thenReturn(Collections.singletonList(bundle));
+        when(this.mockedClient.getUsersOfClientRole(eq("other-app"), eq("bundle"), eq(0), anyInt()))
+                .thenReturn(users("alice"));
+        when(this.mockedClient.getRoleComposites("bundle-id")).thenReturn(Collections.singletonList(admin));
+
+        KeycloakMembershipIndex index = KeycloakMembershipIndex.load(this.mockedClient);
+        Assert.assertEquals(Collections.singletonList(admin), index.getClientRoles());
+        Assert.assertEquals(Collections.singletonList("bundle"), names(index, "alice"));
+
+        // The expanded roles are the same as the ones of the direct role-mappings of the user
+        ClientMappingsRepresentation clientMappings = new ClientMappingsRepresentation();
+        clientMappings.setClient("other-app");
+        clientMappings.setMappings(Collections.singletonList(bundle));
+        Map<String, ClientMappingsRepresentation> clients = new HashMap<>();
+        clients.put("other-app", clientMappings);
+        MappingsRepresentation userMappings = new MappingsRepresentation();
+        userMappings.setClientMappings(clients);
+
+        KeycloakRoleGraph graph = new KeycloakRoleGraph(this.mockedClient, 60);
+        List<RoleRepresentation> expected = graph.getEffectiveRoles(userMappings, Collections.emptyList());
+        List<RoleRepresentation> actual = graph.getEffectiveRoles(index.getRoleMappings("alice"),
+                                                                  index.getGroups("alice"));
+        Assert.assertEquals(Arrays.asList(bundle, admin), expected);
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testPageMembers() {
+        RoleRepresentation developer = role("developer", false);
+        List<UserRepresentation> firstPage = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            firstPage.add(user("user-" + i));
+        }
+
+        when(this.mockedClient.getRealmRoles()).thenReturn(Collections.singletonList(developer));
+        when(this.mockedClient.getUsersOfRealmRole(eq("developer"), eq(0), anyInt())).thenReturn(firstPage);
+        when(this.mockedClient.getUsersOfRealmRole(eq("developer"), eq(100), anyInt())).thenReturn(users("alice"));
+
+        KeycloakMembershipIndex index = KeycloakMembershipIndex.load(this.mockedClient);
+
+        Assert.assertEquals(Collections.singletonList("developer"), names(index, "user-99"));
+        Assert.assertEquals(Collections.singletonList("developer"), names(index, "alice"));
+        Assert.assertTrue(index.getClientRoles().isEmpty());
+        Assert.assertTrue(index.getAllGroups().isEmpty());
+    }
+
+    private List<String> names(KeycloakMembershipIndex index, String username) {
+        return index.getRoleMappings(username)
+                    .getRealmMappings()
+                    .stream()
+                    .map(RoleRepresentation::getName)
+                    .collect(Collectors.toList());
+    }
+
+    private RoleRepresentation role(String name, boolean clientRole) {
+        RoleRepresentation role = new RoleRepresentation(name, null, false);
+        role.setId(name + "-id");
+        role.setClientRole(clientRole);
+        return role;
+    }
+
+    private ClientRepresentation client(String clientId) {
+        ClientRepresentation client = new ClientRepresentation();
+        client.setId(clientId + "-uuid");
+        client.setClientId(clientId);
+        return client;
+    }
+
+    private GroupRepresentation group(String id, String path) {
+        GroupRepresentation group = new GroupRepresentation();
+        group.setId(id);
+        group.setPath(path);
+        return group;
+    }
+
+    private List<UserRepresentation> users(String... usernames) {
+        return Arrays.stream(usernames).map(this::user).collect(Collectors.toList());
+    }
+
+    private UserRepresentation user(String username) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId(username + "-id");
+        user.setUsername(username);
+        return user;
+    }
+}
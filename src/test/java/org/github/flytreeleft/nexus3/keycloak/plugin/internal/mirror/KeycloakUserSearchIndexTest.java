@@ -0,0 +1,61 @@
+package org.github.flytreeleft.nexus3.keycloak.plugin.internal.mirror;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.representations.idm.UserRepresentation;
+
+public class KeycloakUserSearchIndexTest {
+    private KeycloakUserSearchIndex index;
+
+    @Before
+    public void before() {
+        this.index = new KeycloakUserSearchIndex(Arrays.asList(user("john", "john@example.com", "John", "Smith"),
+                                                               user("joe", null, "Joe", "Black"),
+                                                               user("alice", "alice@corp.org", null, "Johnson"),
+                                                               user("bob", "bob@example.com", "Bob", null)));
+    }
+
+    @Test
+    public void testSearchPrefix() {
+        Assert.assertEquals(Arrays.asList("john", "joe", "alice"), usernames(this.index.search("Jo", null, 0)));
+        Assert.assertEquals(Arrays.asList("joe", "bob"), usernames(this.index.search("b", null, 0)));
+        // The short text doesn't match the middle of the fields
+        Assert.assertEquals(Collections.emptyList(), usernames(this.index.search("li", null, 0)));
+    }
+
+    @Test
+    public void testSearchSubstring() {
+        Assert.assertEquals(Arrays.asList("john", "bob"), usernames(this.index.search("example", null, 0)));
+        Assert.assertEquals(Arrays.asList("john", "alice"), usernames(this.index.search("JOHN", null, 0)));
+        Assert.assertEquals(Collections.singletonList("alice"), usernames(this.index.search("ohnso", null, 0)));
+        // The trigrams "bla" and "ck@" come from different fields
+        Assert.assertEquals(Collections.emptyList(), usernames(this.index.search("black@", null, 0)));
+    }
+
+    @Test
+    public void testSearchWithFilterAndLimit() {
+        Assert.assertEquals(4, this.index.search("", null, 0).size());
+        Assert.assertEquals(Arrays.asList("john", "joe"), usernames(this.index.search("", null, 2)));
+        Assert.assertEquals(Collections.singletonList("joe"),
+                            usernames(this.index.search("jo", (user) -> user.getEmail() == null, 0)));
+    }
+
+    private List<String> usernames(List<UserRepresentation> users) {
+        return users.stream().map(UserRepresentation::getUsername).collect(Collectors.toList());
+    }
+
+    private UserRepresentation user(String username, String email, String firstName, String lastName) {
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+}